@@ -1,20 +1,59 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
- * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * The Aggregation operator that computes aggregates (e.g., sum, avg, max,
+ * min).  It computes either a single aggregate grouped by at most one
+ * column, or a list of aggregates grouped by any number of columns; in
+ * both cases the child is read once.
+ * <p>
+ * The groups are held in memory up to a budget.  Once the budget is full,
+ * tuples of groups already in memory are still merged, but tuples of new
+ * groups are hashed on their group-by fields into {@link SpillFile}
+ * partitions.  After the groups in memory are returned, each partition is
+ * aggregated in turn by a nested Aggregate, which partitions again with a
+ * different hash if it still does not fit.  Past {@link #MAX_DEPTH} levels
+ * the budget is ignored.
+ * <p>
+ * With {@link #setParallelism} above one and a {@link SeqScan} child, open()
+ * instead splits the scanned HeapFile into contiguous page ranges and has
+ * one thread per range aggregate its pages into a private
+ * {@link MultiAggregator}; the partial aggregates are then merged.  This
+ * mode keeps all groups in memory.
  */
 public class Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Default memory budget for the groups, in pages. */
+    public static final int DEFAULT_MEMORY_PAGES = 1000;
+    /** Number of partitions tuples of new groups are spilled to. */
+    static final int NUM_PARTITIONS = 16;
+    /** Partitioning levels after which the memory budget is ignored. */
+    static final int MAX_DEPTH = 4;
+
     DbIterator child;
     int afield,gfield;
     Aggregator.Op aop;
+    int[] afields, gfields;
+    Aggregator.Op[] aops;
+    TupleDesc td;
     Aggregator aggregator;
     DbIterator it;
+    final int memoryPages;
+    final int level;
+
+    SpillFile[] spill;
+    long spilledTuples;
+    long spilledBytes;
+    // aggregate of the spilled partition being returned, and the next one
+    Aggregate sub;
+    int nextSpilled;
+    // partitions whose nested spill volume is already counted
+    int countedSpilled;
+    int parallelism = 1;
 
     /**
      * Constructor.
@@ -35,21 +74,166 @@ public class Aggregate extends Operator {
      *            The aggregation operator to use
      */
     public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, new int[] { afield },
+             gfield == Aggregator.NO_GROUPING ? new int[0] : new int[] { gfield },
+             new Aggregator.Op[] { aop });
+    }
+
+    /**
+     * Constructor for several aggregates over a composite grouping.  Output
+     * tuples hold the gfields, in order, followed by one field per
+     * aggregate.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param gfields
+     *            The columns over which we are grouping the result; empty
+     *            if there is no grouping
+     * @param aops
+     *            The aggregation operator to apply to each of afields
+     */
+    public Aggregate(DbIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+        this(child, afields, gfields, aops, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Constructor for several aggregates with a memory budget.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param gfields
+     *            The columns over which we are grouping the result; empty
+     *            if there is no grouping
+     * @param aops
+     *            The aggregation operator to apply to each of afields
+     * @param memoryPages
+     *            The number of pages' worth of groups to hold in memory
+     *            before tuples of new groups are spilled to disk
+     */
+    public Aggregate(DbIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops,
+                     int memoryPages) {
+        this(child, afields, gfields, aops, memoryPages, 0);
+    }
+
+    private Aggregate(DbIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops,
+                      int memoryPages, int level) {
+        if (afields.length == 0 || afields.length != aops.length)
+            throw new IllegalArgumentException("need one operator per aggregate field");
         this.child = child;
-        this.afield = afield;
-        this.gfield = gfield;
-        this.aop = aop;
-        Type gbtype = null;
-        if(gfield > -1)
-            gbtype = child.getTupleDesc().getFieldType(gfield);
-        Type atype = child.getTupleDesc().getFieldType(afield);
-        if(atype == Type.INT_TYPE)
-            aggregator = new IntegerAggregator(gfield, gbtype, afield, aop);
-        else
-            aggregator = new StringAggregator(gfield, gbtype, afield, aop); 
+        this.afields = afields;
+        this.gfields = gfields;
+        this.aops = aops;
+        this.afield = afields[0];
+        this.gfield = gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0];
+        this.aop = aops[0];
+        this.memoryPages = memoryPages;
+        this.level = level;
+
+        this.td = outputDesc(child.getTupleDesc(), afields, gfields, aops);
+        aggregator = newAggregator();
         it = aggregator.iterator();  
     }
 
+    /**
+     * @return the schema of aggregating tuples of childTd: the gfields,
+     *         followed by one field per aggregate, named after its operator
+     *         and input field
+     */
+    static TupleDesc outputDesc(TupleDesc childTd, int[] afields, int[] gfields,
+                                Aggregator.Op[] aops) {
+        Type[] types = new Type[gfields.length + afields.length];
+        String[] names = new String[types.length];
+        for (int i = 0; i < gfields.length; i++) {
+            types[i] = childTd.getFieldType(gfields[i]);
+            names[i] = childTd.getFieldName(gfields[i]);
+        }
+        for (int i = 0; i < afields.length; i++) {
+            types[gfields.length + i] = resultType(aops[i], childTd.getFieldType(afields[i]));
+            names[gfields.length + i] = nameOfAggregatorOp(aops[i]) + " ("
+                + childTd.getFieldName(afields[i]) + ")";
+        }
+        return new TupleDesc(types, names);
+    }
+
+    /**
+     * @return the type of aop's result over a field of type atype.  COUNT is
+     *         an INT, as is APPROX_COUNT_DISTINCT; MIN, MAX, AVG and the
+     *         approximate percentiles keep atype, so the AVG of an INT field
+     *         is truncated; SUM widens INT to LONG so that it does not
+     *         overflow, and stays DOUBLE over a DOUBLE field.
+     */
+    static Type resultType(Aggregator.Op aop, Type atype) {
+        switch (aop) {
+        case MIN:
+        case MAX:
+        case AVG:
+        case APPROX_MEDIAN:
+        case APPROX_P90:
+        case APPROX_P99:
+            return atype;
+        case SUM:
+            return atype == Type.DOUBLE_TYPE ? Type.DOUBLE_TYPE : Type.LONG_TYPE;
+        default:
+            return Type.INT_TYPE;
+        }
+    }
+
+    /**
+     * @return the SUM or AVG, as aop says, of count values of type atype
+     *         whose total is sum, or dsum if atype is DOUBLE
+     */
+    static Field sumOrAvg(Aggregator.Op aop, Type atype, long sum, double dsum, long count) {
+        if (atype == Type.DOUBLE_TYPE)
+            return new DoubleField(aop == Aggregator.Op.AVG ? dsum / count : dsum);
+        if (aop != Aggregator.Op.AVG)
+            return new LongField(sum);
+        if (atype == Type.LONG_TYPE)
+            return new LongField(sum / count);
+        return new IntField((int) (sum / count));
+    }
+
+    /**
+     * Pick the aggregator for this operator: the specialized ones for a
+     * single aggregate they support, MultiAggregator otherwise.
+     */
+    private Aggregator newAggregator() {
+        TupleDesc childTd = child.getTupleDesc();
+        if (afields.length == 1 && gfields.length <= 1 && !isApproximate(aop)) {
+            Type gbtype = null;
+            if(gfield > -1)
+                gbtype = childTd.getFieldType(gfield);
+            Type atype = childTd.getFieldType(afield);
+            if(atype == Type.INT_TYPE && (gbtype == null || gbtype == Type.INT_TYPE)
+                    && aop != Aggregator.Op.SUM_COUNT && aop != Aggregator.Op.SC_AVG)
+                return new IntHashAggregator(gfield, afield, aop);
+            else if(atype == Type.INT_TYPE)
+                return new IntegerAggregator(gfield, gbtype, afield, aop);
+            else if(aop == Aggregator.Op.COUNT)
+                return new StringAggregator(gfield, gbtype, afield, aop);
+        }
+        return newMultiAggregator();
+    }
+
+    /** @return true if op is estimated by a sketch, which only MultiAggregator keeps */
+    static boolean isApproximate(Aggregator.Op op) {
+        return op == Aggregator.Op.APPROX_COUNT_DISTINCT || MultiAggregator.quantile(op) >= 0;
+    }
+
+    private MultiAggregator newMultiAggregator() {
+        TupleDesc childTd = child.getTupleDesc();
+        Type[] gbtypes = new Type[gfields.length];
+        for (int i = 0; i < gfields.length; i++)
+            gbtypes[i] = childTd.getFieldType(gfields[i]);
+        Type[] atypes = new Type[afields.length];
+        for (int i = 0; i < afields.length; i++)
+            atypes[i] = childTd.getFieldType(afields[i]);
+        return new MultiAggregator(gfields, gbtypes, afields, atypes, aops);
+    }
+
     /**
      * @return If this aggregate is accompanied by a groupby, return the groupby
      *         field index in the <b>INPUT</b> tuples. If not, return
@@ -89,25 +273,238 @@ public class Aggregate extends Operator {
      * @return return the aggregate operator
      * */
     public Aggregator.Op aggregateOp() {
-	   return Aggregator.Op.getOp(this.afield);
+	   return this.aop;
+    }
+
+    /** @return the group-by field indexes in the <b>INPUT</b> tuples */
+    public int[] groupFields() {
+        return this.gfields;
+    }
+
+    /** @return the aggregate field indexes in the <b>INPUT</b> tuples */
+    public int[] aggregateFields() {
+        return this.afields;
+    }
+
+    /** @return the aggregate operators, one per aggregate field */
+    public Aggregator.Op[] aggregateOps() {
+        return this.aops;
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
 	   return aop.toString();
     }
 
+    /**
+     * @return the number of child tuples written to spill files, including
+     *         those written by nested aggregates that have finished
+     */
+    public long getSpilledTuples() {
+        return spilledTuples;
+    }
+
+    /** @return the number of bytes written to spill files, as above */
+    public long getSpilledBytes() {
+        return spilledBytes;
+    }
+
+    /**
+     * Aggregate a scanned table with up to threads threads.  Has no effect
+     * unless the child is a SeqScan and no operator is SUM_COUNT or SC_AVG.
+     *
+     * @param threads the number of worker threads; 1 to aggregate serially
+     */
+    public void setParallelism(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("need at least one thread");
+        this.parallelism = threads;
+    }
+
     public void open() throws NoSuchElementException, DbException,
 	    TransactionAbortedException {
             child.open();
-            while(child.hasNext()) {
-                aggregator.mergeTupleIntoGroup(child.next());
+            if (parallelism > 1 && child instanceof SeqScan && mergeable())
+                aggregateParallel((SeqScan) child);
+            else
+                aggregate();
+            super.open();
+        }
+
+    /** @return true if partial aggregates of every operator can be merged */
+    private boolean mergeable() {
+        for (Aggregator.Op op : aops) {
+            if (op == Aggregator.Op.SUM_COUNT || op == Aggregator.Op.SC_AVG)
+                return false;
+        }
+        return true;
+    }
+
+    private void aggregateParallel(SeqScan scan)
+        throws DbException, TransactionAbortedException {
+        HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(scan.getTableId());
+        TransactionId tid = scan.getTransactionId();
+        int pages = hf.numPages();
+        // fetch the pages up front, so the workers don't contend for the
+        // buffer pool's lock
+        final HeapPage[] heapPages = new HeapPage[pages];
+        for (int p = 0; p < pages; p++)
+            heapPages[p] = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(hf.getId(), p), Permissions.READ_ONLY);
+        int n = Math.max(1, Math.min(parallelism, pages));
+        // partials are IntHashAggregators where the serial path would use
+        // one, else MultiAggregators
+        final Aggregator[] partials = new Aggregator[n];
+        final Exception[] errors = new Exception[n];
+        Thread[] workers = new Thread[n];
+        for (int w = 0; w < n; w++) {
+            final int id = w;
+            final int from = (int) ((long) pages * w / n);
+            final int to = (int) ((long) pages * (w + 1) / n);
+            partials[w] = newAggregator();
+            if (!(partials[w] instanceof IntHashAggregator))
+                partials[w] = newMultiAggregator();
+            workers[w] = new Thread("aggregate-" + w) {
+                public void run() {
+                    try {
+                        for (int p = from; p < to; p++) {
+                            Iterator<Tuple> tuples = heapPages[p].iterator();
+                            while (tuples.hasNext())
+                                partials[id].mergeTupleIntoGroup(tuples.next());
+                        }
+                    } catch (Exception e) {
+                        errors[id] = e;
+                    }
+                }
+            };
+            workers[w].start();
+        }
+        try {
+            for (Thread t : workers)
+                t.join();
+        } catch (InterruptedException e) {
+            throw new DbException("interrupted during parallel aggregation");
+        }
+        for (Exception e : errors) {
+            if (e instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) e;
+            if (e instanceof DbException)
+                throw (DbException) e;
+            if (e != null)
+                throw new DbException("parallel aggregation failed: " + e);
+        }
+        for (int w = 1; w < n; w++) {
+            if (partials[0] instanceof IntHashAggregator)
+                ((IntHashAggregator) partials[0]).merge((IntHashAggregator) partials[w]);
+            else
+                ((MultiAggregator) partials[0]).merge((MultiAggregator) partials[w]);
+        }
+        aggregator = partials[0];
+        spill = null;
+        spilledTuples = 0;
+        spilledBytes = 0;
+        sub = null;
+        it = aggregator.iterator();
+        it.open();
+    }
+
+    private void aggregate() throws DbException, TransactionAbortedException {
+        aggregator = newAggregator();
+        spill = null;
+        spilledTuples = 0;
+        spilledBytes = 0;
+        sub = null;
+        nextSpilled = 0;
+        countedSpilled = 0;
+        int perPage = Math.max(1, BufferPool.getPageSize() / td.getSize());
+        long maxGroups = (long) memoryPages * perPage;
+        boolean bounded = gfields.length > 0 && level < MAX_DEPTH;
+        // the child is read in batches, which IntHashAggregator merges from
+        // their int columns until the budget is full
+        TupleBatch batch;
+        while ((batch = TupleBatch.nextBatch(child)) != null) {
+            int i = 0;
+            if (spill == null && aggregator instanceof IntHashAggregator) {
+                i = ((IntHashAggregator) aggregator).mergeBatch(batch,
+                        bounded ? maxGroups : Long.MAX_VALUE);
+                if (bounded && aggregator.numGroups() >= maxGroups)
+                    spill = new SpillFile[NUM_PARTITIONS];
+            }
+            for (; i < batch.size(); i++) {
+                Tuple t = batch.getTuple(i);
+                if (spill != null && !aggregator.hasGroup(t)) {
+                    spill(t);
+                    continue;
+                }
+                aggregator.mergeTupleIntoGroup(t);
+                if (bounded && spill == null && aggregator.numGroups() >= maxGroups)
+                    spill = new SpillFile[NUM_PARTITIONS];
+            }
+        }
+        if (spill != null) {
+            for (SpillFile f : spill) {
+                if (f != null)
+                    spilledBytes += f.bytes();
             }
-            it = aggregator.iterator();
+            Debug.log("Aggregate level %d: %d tuples (%d bytes) spilled",
+                      level, spilledTuples, spilledBytes);
+        }
+        it = aggregator.iterator();
+        it.open();
+    }
 
-            it.open();
-            // System.out.println("Aggregate.java" + it.hasNext());
-            super.open();
+    private void spill(Tuple t) throws DbException {
+        int h = 0;
+        for (int g : gfields)
+            h = 31 * h + t.getField(g).hashCode();
+        h ^= level * 0x9e3779b9;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        int part = (h & 0x7fffffff) % NUM_PARTITIONS;
+        try {
+            if (spill[part] == null)
+                spill[part] = new SpillFile(child.getTupleDesc());
+            spill[part].add(t);
+        } catch (IOException e) {
+            throw new DbException("Aggregate spill failed: " + e.getMessage());
+        }
+        spilledTuples++;
+    }
+
+    /**
+     * Start aggregating the next spilled partition.
+     *
+     * @return false if there are none left
+     */
+    private boolean openNextSpilled() throws DbException, TransactionAbortedException {
+        if (spill == null)
+            return false;
+        while (nextSpilled < NUM_PARTITIONS) {
+            SpillFile f = spill[nextSpilled++];
+            if (f == null)
+                continue;
+            try {
+                sub = new Aggregate(f.iterator(), afields, gfields, aops, memoryPages, level + 1);
+            } catch (IOException e) {
+                throw new DbException("Aggregate spill failed: " + e.getMessage());
+            }
+            sub.open();
+            return true;
+        }
+        return false;
+    }
+
+    private void closeSub() {
+        if (sub != null) {
+            if (nextSpilled > countedSpilled) {
+                spilledTuples += sub.getSpilledTuples();
+                spilledBytes += sub.getSpilledBytes();
+                countedSpilled = nextSpilled;
+            }
+            sub.close();
+            sub = null;
         }
+    }
 
     /**
      * Returns the next tuple. If there is a group by field, then the first
@@ -123,11 +520,23 @@ public class Aggregate extends Operator {
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         if(it.hasNext())
             return it.next();
-        return null;
+        while (true) {
+            if (sub != null && sub.hasNext())
+                return sub.next();
+            closeSub();
+            if (!openNextSpilled())
+                return null;
+        }
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         it.rewind();
+        // partitions are aggregated again from their spill files
+        if (sub != null) {
+            sub.close();
+            sub = null;
+        }
+        nextSpilled = 0;
     }
 
     /**
@@ -142,13 +551,24 @@ public class Aggregate extends Operator {
      * iterator.
      */
     public TupleDesc getTupleDesc() {
-	   return this.child.getTupleDesc();
+	   return this.td;
     }
 
     public void close() {
         super.close();
         it.close();
         child.close();
+        if (sub != null) {
+            sub.close();
+            sub = null;
+        }
+        if (spill != null) {
+            for (SpillFile f : spill) {
+                if (f != null)
+                    f.delete();
+            }
+            spill = null;
+        }
     }
 
     /**
@@ -23,7 +23,17 @@ public interface Aggregator extends Serializable {
          * SC_AVG: compute the avg of a set of SUM_COUNT tuples,
          * will be used to compute distributed avg in lab6.
          * */
-        SC_AVG;
+        SC_AVG,
+        /**
+         * APPROX_COUNT_DISTINCT: estimate the number of distinct values
+         * with a {@link HyperLogLog} sketch.
+         * */
+        APPROX_COUNT_DISTINCT,
+        /**
+         * APPROX_MEDIAN, APPROX_P90 and APPROX_P99: estimate the 50th, 90th
+         * and 99th percentile of a numeric field with a {@link KllSketch}.
+         * */
+        APPROX_MEDIAN, APPROX_P90, APPROX_P99;
 
         /**
          * Interface to access operations by a string containing an integer
@@ -61,6 +71,14 @@ public interface Aggregator extends Serializable {
         		return "count";
         	if (this==SC_AVG)
     			return "sc_avg";
+        	if (this==APPROX_COUNT_DISTINCT)
+        		return "approx_count_distinct";
+        	if (this==APPROX_MEDIAN)
+        		return "approx_median";
+        	if (this==APPROX_P90)
+        		return "approx_p90";
+        	if (this==APPROX_P99)
+        		return "approx_p99";
         	throw new IllegalStateException("impossible to reach here");
         }
     }
@@ -79,5 +97,16 @@ public interface Aggregator extends Serializable {
      * @see simpledb.TupleIterator for a possible helper
      */
     public DbIterator iterator();
+
+    /**
+     * @return the number of groups merged so far
+     */
+    public int numGroups();
+
+    /**
+     * @param tup a tuple of the aggregated relation
+     * @return true if the group tup belongs to has been merged into already
+     */
+    public boolean hasGroup(Tuple tup);
     
 }
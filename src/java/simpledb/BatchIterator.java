@@ -0,0 +1,21 @@
+package simpledb;
+
+/**
+ * A DbIterator that can also return its tuples a batch at a time, so that
+ * operators can work on whole columns in tight loops instead of making
+ * several virtual calls and allocating a Tuple per row.
+ * <p>
+ * Between open (or rewind) and close, a consumer reads an iterator either
+ * by tuples or by batches, not both.  {@link TupleBatch#nextBatch} reads a
+ * batch from any DbIterator, adapting those that are not BatchIterators.
+ */
+public interface BatchIterator extends DbIterator {
+
+    /**
+     * @return the next batch of at most {@link TupleBatch#DEFAULT_SIZE}
+     *         selected tuples, never empty, or null if there are no more
+     *         tuples
+     * @throws IllegalStateException if the iterator has not been opened
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+}
@@ -0,0 +1,66 @@
+package simpledb;
+
+/**
+ * BloomFilter is a fixed-size set of fields that may report false
+ * positives but never false negatives.  A hash join builds one over the
+ * join keys of its build side and hands it to the probe-side scan, which
+ * uses it to drop tuples that cannot match before they reach the join.
+ * <p>
+ * The filter is sized for an expected number of keys at about ten bits per
+ * key and seven hash functions, which gives roughly a 1% false positive
+ * rate when that many keys have been added.
+ */
+public class BloomFilter {
+
+    private static final int BITS_PER_KEY = 10;
+    private static final int NUM_HASHES = 7;
+
+    private final long[] bits;
+    private final int numBits;
+
+    /**
+     * Constructor.
+     *
+     * @param expectedKeys
+     *            The number of distinct keys the filter is expected to hold
+     */
+    public BloomFilter(int expectedKeys) {
+        long n = Math.max(64L, (long) Math.max(1, expectedKeys) * BITS_PER_KEY);
+        this.numBits = (int) Math.min(n, Integer.MAX_VALUE - 63);
+        this.bits = new long[(numBits + 63) / 64];
+    }
+
+    /** Add f to the filter. */
+    public void add(Field f) {
+        int h1 = mix(f.hashCode());
+        int h2 = mix(h1 ^ 0x9e3779b9) | 1;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            int bit = ((h1 + i * h2) & 0x7fffffff) % numBits;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @return false if f was certainly never added, true if it may have been
+     */
+    public boolean mightContain(Field f) {
+        int h1 = mix(f.hashCode());
+        int h2 = mix(h1 ^ 0x9e3779b9) | 1;
+        for (int i = 0; i < NUM_HASHES; i++) {
+            int bit = ((h1 + i * h2) & 0x7fffffff) % numBits;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /** Spread the bits of h; IntField hashes to its own value. */
+    private static int mix(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
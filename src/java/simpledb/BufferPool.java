@@ -13,6 +13,19 @@ import java.util.*;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Read-only transactions can instead read from a snapshot (see
+ * {@link #beginSnapshot}).  Each commit is given a timestamp, and whenever
+ * a commit replaces a page image that an active snapshot may still need,
+ * the old committed image is kept on a per-page version chain.  A snapshot
+ * reader is handed the newest committed image no newer than its snapshot,
+ * takes no page locks and never sees uncommitted changes.  Old versions are
+ * dropped once no active snapshot can see them.
+ * <p>
+ * Optimistic transactions (see {@link #beginOptimistic}) also read committed
+ * images without locks, but may write: their changes go to private copies of
+ * the pages they write.  At commit, {@link #validate} checks that nothing
+ * they read has been changed since, and only then makes the copies visible.
  * 
  * @Threadsafe, all fields are final
  */
@@ -28,6 +41,25 @@ public class BufferPool {
         }
     }
 
+    /** Pages read and written by an optimistic transaction. */
+    private class OptimisticState {
+        // commit timestamp of each page when first read
+        final HashMap<PageId, Long> readVersions = new HashMap<PageId, Long>();
+        // private copies of the pages written
+        final HashMap<PageId, Page> workspace = new HashMap<PageId, Page>();
+    }
+
+    /** A committed image of a page, kept for snapshot readers. */
+    private class PageVersion {
+        final long commitTs;
+        final Page page;
+
+        PageVersion(long commitTs, Page page) {
+            this.commitTs = commitTs;
+            this.page = page;
+        }
+    }
+
     /** Bytes per page, including header. */
     public static final int PAGE_SIZE = 4096;
 
@@ -43,6 +75,20 @@ public class BufferPool {
     int currAccessTime;
     HashMap<PageId, BPPage> pages;
 
+    // timestamp of the most recent commit
+    long lastCommitTs;
+    // commit timestamp of the current committed image of each page
+    // (pages missing from the map have been unchanged since timestamp 0)
+    HashMap<PageId, Long> installedAt;
+    // older committed images of each page, newest first
+    HashMap<PageId, LinkedList<PageVersion>> versions;
+    // pages modified by a transaction that has not completed yet
+    HashMap<PageId, TransactionId> writers;
+    // active snapshot readers, and the commit timestamp they read as of
+    HashMap<TransactionId, Long> snapshots;
+    // active optimistic transactions
+    HashMap<TransactionId, OptimisticState> optimistic;
+
     /** TODO for Lab 4: create your private Lock Manager class. 
 	Be sure to instantiate it in the constructor. */
 
@@ -59,6 +105,12 @@ public class BufferPool {
         currSize = 0;
         currAccessTime = 0;
         pages = new HashMap<PageId, BPPage>();
+        lastCommitTs = 0;
+        installedAt = new HashMap<PageId, Long>();
+        versions = new HashMap<PageId, LinkedList<PageVersion>>();
+        writers = new HashMap<PageId, TransactionId>();
+        snapshots = new HashMap<TransactionId, Long>();
+        optimistic = new HashMap<TransactionId, OptimisticState>();
     }
     
     public static int getPageSize() {
@@ -82,14 +134,76 @@ public class BufferPool {
      * be added to the buffer pool and returned.  If there is insufficient
      * space in the buffer pool, an page should be evicted and the new page
      * should be added in its place.
+     * <p>
+     * If tid is reading from a snapshot, no lock is taken and the page
+     * returned is the version of the page as of the snapshot, which must
+     * not be modified.
+     * <p>
+     * Fetching a page READ_WRITE records tid as its writer before the page
+     * is returned, so snapshot readers are handed the committed image from
+     * then on, even while the caller is still changing the page.
      *
      * @param tid the ID of the transaction requesting the page
      * @param pid the ID of the requested page
      * @param perm the requested permissions on the page
      */
-    public Page getPage(TransactionId tid, PageId pid, Permissions perm)
+    public synchronized Page getPage(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException, DbException {
-        int i;
+        Long snapshot = snapshots.get(tid);
+        if (snapshot != null) {
+            if (perm == Permissions.READ_WRITE)
+                throw new DbException("read-only transaction cannot write page " + pid);
+            return snapshotPage(pid, snapshot);
+        }
+        OptimisticState occ = optimistic.get(tid);
+        if (occ != null)
+            return optimisticPage(occ, pid, perm);
+        Page p = cachedPage(pid);
+        if (perm == Permissions.READ_WRITE && !writers.containsKey(pid)) {
+            // the current image is the committed one
+            p.setBeforeImage();
+            writers.put(pid, tid);
+        }
+        return p;
+    }
+
+    /** Return the commit timestamp of the current committed image of pid */
+    private long version(PageId pid) {
+        Long installed = installedAt.get(pid);
+        return installed == null ? 0 : installed;
+    }
+
+    /**
+     * Return the page an optimistic transaction sees: its own copy if it has
+     * written the page, otherwise the last committed image.  Asking to write
+     * the page makes the private copy.
+     */
+    private Page optimisticPage(OptimisticState occ, PageId pid, Permissions perm)
+        throws DbException, TransactionAbortedException {
+        Page p = occ.workspace.get(pid);
+        if (p != null)
+            return p;
+        Page current = cachedPage(pid);
+        Long read = occ.readVersions.get(pid);
+        if (read == null)
+            occ.readVersions.put(pid, version(pid));
+        else if (perm == Permissions.READ_WRITE && read != version(pid))
+            // the page changed since it was read, so validation is bound to
+            // fail; don't let the transaction update a newer image
+            throw new TransactionAbortedException();
+        boolean uncommitted = writers.containsKey(pid);
+        if (perm == Permissions.READ_ONLY)
+            return uncommitted ? current.getBeforeImage() : current;
+        if (!uncommitted) {
+            // the current image is the committed one
+            current.setBeforeImage();
+        }
+        p = current.getBeforeImage();
+        occ.workspace.put(pid, p);
+        return p;
+    }
+
+    private Page cachedPage(PageId pid) throws DbException {
         BPPage bppage = pages.get(pid);
         if(!(bppage == null)) {
             return bppage.page;
@@ -106,7 +220,96 @@ public class BufferPool {
                 return p;
             }
         }
-        
+    }
+
+    /**
+     * Return the newest committed image of pid with a commit timestamp no
+     * later than ts.
+     */
+    private Page snapshotPage(PageId pid, long ts) throws DbException {
+        Page current = cachedPage(pid);
+        Long installed = installedAt.get(pid);
+        if (installed == null || installed <= ts) {
+            // the current committed image is visible; hide any changes made
+            // by transactions that are still running
+            if (writers.containsKey(pid))
+                return current.getBeforeImage();
+            return current;
+        }
+        LinkedList<PageVersion> chain = versions.get(pid);
+        if (chain != null) {
+            for (PageVersion v : chain) {
+                if (v.commitTs <= ts)
+                    return v.page;
+            }
+        }
+        throw new DbException("no version of " + pid + " visible to snapshot " + ts);
+    }
+
+    /**
+     * Start reading from a snapshot on behalf of a read-only transaction.
+     * Until the transaction completes, {@link #getPage} returns pages as of
+     * the last commit before this call, without taking locks.
+     *
+     * @param tid the read-only transaction
+     */
+    public synchronized void beginSnapshot(TransactionId tid) {
+        snapshots.put(tid, lastCommitTs);
+    }
+
+    /**
+     * Run tid optimistically: it takes no locks, reads committed pages,
+     * and keeps its writes private until {@link #validate} succeeds.
+     *
+     * @param tid the optimistic transaction
+     */
+    public synchronized void beginOptimistic(TransactionId tid) {
+        optimistic.put(tid, new OptimisticState());
+    }
+
+    /**
+     * Validate an optimistic transaction and, if it may commit, make its
+     * writes visible.  The transaction conflicts if any page it read has
+     * been committed by another transaction since, or has changes from a
+     * transaction that has not completed yet.  After a successful
+     * validation the pages it changed are dirty pages in the pool, and
+     * it finishes with {@link #transactionComplete} like any other
+     * transaction.
+     *
+     * @param tid the optimistic transaction
+     * @throws TransactionAbortedException if tid conflicts and must abort
+     */
+    public synchronized void validate(TransactionId tid)
+        throws TransactionAbortedException {
+        OptimisticState occ = optimistic.get(tid);
+        if (occ == null)
+            return;
+        for (Map.Entry<PageId, Long> e : occ.readVersions.entrySet()) {
+            PageId pid = e.getKey();
+            TransactionId writer = writers.get(pid);
+            if (version(pid) != e.getValue()
+                || (writer != null && !writer.equals(tid)))
+                throw new TransactionAbortedException();
+        }
+        for (Page p : occ.workspace.values()) {
+            // pages fetched for writing but never changed (as HeapFile does
+            // with full pages while looking for room) stay as committed
+            if (p.isDirty() == null)
+                continue;
+            PageId pid = p.getId();
+            BPPage bpp = pages.get(pid);
+            if (bpp == null)
+                pages.put(pid, new BPPage(p, currAccessTime++));
+            else
+                bpp.page = p;
+            writers.put(pid, tid);
+        }
+        optimistic.remove(tid);
+    }
+
+    /** Return true if the specified transaction is reading from a snapshot */
+    public synchronized boolean isSnapshot(TransactionId tid) {
+        return snapshots.containsKey(tid);
     }
 
     /**
@@ -129,8 +332,7 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the unlock
      */
     public void transactionComplete(TransactionId tid) throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+        transactionComplete(tid, true);
     }
 
     /** Return true if the specified transaction has a lock on the specified page */
@@ -147,10 +349,87 @@ public class BufferPool {
      * @param tid the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
      */
-    public void transactionComplete(TransactionId tid, boolean commit)
+    public synchronized void transactionComplete(TransactionId tid, boolean commit)
         throws IOException {
-        // some code goes here
-        // not necessary for lab1|lab2
+        if (snapshots.remove(tid) != null) {
+            collectVersions();
+            return;
+        }
+        // an optimistic transaction that never validated has nothing in the
+        // pool; its private copies are simply dropped
+        optimistic.remove(tid);
+
+        long ts = lastCommitTs + 1;
+        boolean changed = false;
+        Iterator<Map.Entry<PageId, TransactionId>> it = writers.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<PageId, TransactionId> e = it.next();
+            if (!e.getValue().equals(tid))
+                continue;
+            it.remove();
+            PageId pid = e.getKey();
+            BPPage bpp = pages.get(pid);
+            if (bpp == null)
+                continue;
+            if (!commit) {
+                // put back the last committed image
+                bpp.page = bpp.page.getBeforeImage();
+                continue;
+            }
+            // fetched for writing but never changed by tid (as HeapFile does
+            // with full pages while looking for room): still the committed
+            // image
+            TransactionId dirtier = bpp.page.isDirty();
+            if (dirtier == null || !dirtier.equals(tid))
+                continue;
+            if (!snapshots.isEmpty()) {
+                LinkedList<PageVersion> chain = versions.get(pid);
+                if (chain == null) {
+                    chain = new LinkedList<PageVersion>();
+                    versions.put(pid, chain);
+                }
+                Long installed = installedAt.get(pid);
+                chain.addFirst(new PageVersion(installed == null ? 0 : installed,
+                                               bpp.page.getBeforeImage()));
+            }
+            installedAt.put(pid, ts);
+            bpp.page.setBeforeImage();
+            changed = true;
+        }
+        if (changed) {
+            lastCommitTs = ts;
+            collectVersions();
+        }
+    }
+
+    /**
+     * Drop page versions that no active snapshot can see: once a version
+     * is visible to the oldest snapshot, everything older than it is dead.
+     */
+    private void collectVersions() {
+        if (snapshots.isEmpty()) {
+            versions.clear();
+            return;
+        }
+        long oldest = Collections.min(snapshots.values());
+        Iterator<Map.Entry<PageId, LinkedList<PageVersion>>> it = versions.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<PageId, LinkedList<PageVersion>> e = it.next();
+            Long installed = installedAt.get(e.getKey());
+            if (installed == null || installed <= oldest) {
+                it.remove();
+                continue;
+            }
+            boolean covered = false;
+            Iterator<PageVersion> vit = e.getValue().iterator();
+            while (vit.hasNext()) {
+                PageVersion v = vit.next();
+                if (covered)
+                    vit.remove();
+                else if (v.commitTs <= oldest)
+                    covered = true;
+            }
+        }
     }
 
     /**
@@ -171,14 +450,23 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        if (isSnapshot(tid))
+            throw new DbException("read-only transaction cannot insert tuples");
         DbFile dbf = Database.getCatalog().getDatabaseFile(tableId);
         ArrayList<Page> list_of_pages = dbf.insertTuple(tid,t);
+        for (HashIndex index : Database.getCatalog().getIndexes(tableId))
+            index.insert(t);
         int i, l = list_of_pages.size();
         for(i=0;i<l;i++) {
             Page page = list_of_pages.get(i);
             page.markDirty(true, tid);
-            pages.put(page.getId(), new BPPage(page,currAccessTime));
-            currAccessTime++;
+            if (keepPrivate(tid, page))
+                continue;
+            synchronized (this) {
+                pages.put(page.getId(), new BPPage(page,currAccessTime));
+                writers.put(page.getId(), tid);
+                currAccessTime++;
+            }
         }
     }
 
@@ -198,18 +486,42 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
         // not necessary for lab1
+        if (isSnapshot(tid))
+            throw new DbException("read-only transaction cannot delete tuples");
         int tID = t.getRecordId().getPageId().getTableId();
         DbFile dbf = Database.getCatalog().getDatabaseFile(tID);
         ArrayList<Page> list_of_pages = dbf.deleteTuple(tid, t);
         int i, l = list_of_pages.size();
         for(i=0;i<l;i++) {
             Page page = list_of_pages.get(i);
-            pages.put(page.getId(),new BPPage(page,currAccessTime));
-            currAccessTime++;
+            if (keepPrivate(tid, page)) {
+                page.markDirty(true,tid);
+                continue;
+            }
+            synchronized (this) {
+                pages.put(page.getId(),new BPPage(page,currAccessTime));
+                writers.put(page.getId(), tid);
+                currAccessTime++;
+            }
             page.markDirty(true,tid);
         }
     }
 
+    /**
+     * If tid is optimistic, record page as one of its private copies and
+     * return true; the page must not enter the pool until tid validates.
+     */
+    private synchronized boolean keepPrivate(TransactionId tid, Page page) {
+        OptimisticState occ = optimistic.get(tid);
+        if (occ == null)
+            return false;
+        // a page appended to the file was never read through getPage
+        if (!occ.readVersions.containsKey(page.getId()))
+            occ.readVersions.put(page.getId(), version(page.getId()));
+        occ.workspace.put(page.getId(), page);
+        return true;
+    }
+
     /**
      * Flush all dirty pages to disk.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
@@ -57,10 +57,12 @@ public class Catalog {
      */
     private HashMap<Integer, Table> tID;
     private HashMap<String, Table> tName;
+    private HashMap<Integer, ArrayList<HashIndex>> indexes;
 
     public Catalog() {
         this.tID=new HashMap<Integer, Table>();
         this.tName=new HashMap<String, Table>();
+        this.indexes=new HashMap<Integer, ArrayList<HashIndex>>();
     }
 
     /**
@@ -160,11 +162,59 @@ public class Catalog {
         return null;
     }
     
+    /**
+     * Create a hash index on a field of a table, unless there already is
+     * one.
+     * @param tableid the table to index
+     * @param fieldName the name of the field to index, as in the table's TupleDesc
+     * @return the index on that field
+     * @throws NoSuchElementException if the table or field doesn't exist
+     */
+    public synchronized HashIndex addIndex(int tableid, String fieldName) throws NoSuchElementException {
+        int field = getTupleDesc(tableid).fieldNameToIndex(fieldName);
+        HashIndex index = getIndex(tableid, field);
+        if (index != null)
+            return index;
+        ArrayList<HashIndex> l = indexes.get(tableid);
+        if (l == null) {
+            l = new ArrayList<HashIndex>();
+            indexes.put(tableid, l);
+        }
+        index = new HashIndex(tableid, field);
+        l.add(index);
+        return index;
+    }
+
+    /**
+     * @return the index on the given field of a table, or null if there is none
+     */
+    public synchronized HashIndex getIndex(int tableid, int field) {
+        ArrayList<HashIndex> l = indexes.get(tableid);
+        if (l != null) {
+            for (HashIndex index : l) {
+                if (index.getField() == field)
+                    return index;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the indexes on a table; empty if there are none
+     */
+    public synchronized List<HashIndex> getIndexes(int tableid) {
+        ArrayList<HashIndex> l = indexes.get(tableid);
+        if (l == null)
+            return Collections.emptyList();
+        return new ArrayList<HashIndex>(l);
+    }
+
     /** Delete all tables from the catalog */
     public void clear() {
         // some code goes here
         tID=new HashMap<Integer, Table>();
         tName=new HashMap<String, Table>();
+        indexes=new HashMap<Integer, ArrayList<HashIndex>>();
     }
     
     /**
@@ -186,22 +236,29 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                ArrayList<String> indexed = new ArrayList<String>();
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
                     if (els2[1].trim().toLowerCase().equals("int"))
                         types.add(Type.INT_TYPE);
+                    else if (els2[1].trim().toLowerCase().equals("long"))
+                        types.add(Type.LONG_TYPE);
+                    else if (els2[1].trim().toLowerCase().equals("double"))
+                        types.add(Type.DOUBLE_TYPE);
                     else if (els2[1].trim().toLowerCase().equals("string"))
                         types.add(Type.STRING_TYPE);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    for (int i = 2; i < els2.length; i++) {
+                        if (els2[i].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[i].trim().equals("index"))
+                            indexed.add(els2[0].trim());
                         else {
-                            System.out.println("Unknown annotation " + els2[2]);
+                            System.out.println("Unknown annotation " + els2[i]);
                             System.exit(0);
                         }
                     }
@@ -211,6 +268,8 @@ public class Catalog {
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
                 HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
                 addTable(tabHf,name,primaryKey);
+                for (String f : indexed)
+                    addIndex(tabHf.getId(), f);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
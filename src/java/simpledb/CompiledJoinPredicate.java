@@ -0,0 +1,67 @@
+package simpledb;
+
+/**
+ * A JoinPredicate specialized, when a plan is built, for the types of the
+ * fields it compares, in the manner of {@link CompiledPredicate}: equality
+ * of two INT fields, the usual join, gets its own class, other INT, LONG
+ * and DOUBLE comparisons share one class per type that maps the sign of
+ * the comparison to the result, and any other fields fall back to
+ * {@link Field#compare}.
+ */
+public abstract class CompiledJoinPredicate {
+
+    /** @return true if t1 and t2 satisfy the predicate */
+    public abstract boolean filter(Tuple t1, Tuple t2);
+
+    /**
+     * Specialize p for left tuples with schema td1 and right tuples with
+     * schema td2.
+     */
+    public static CompiledJoinPredicate compile(JoinPredicate p, TupleDesc td1, TupleDesc td2) {
+        final int f1 = p.getField1(), f2 = p.getField2();
+        final Predicate.Op op = p.getOperator();
+        Type type = td1.getFieldType(f1);
+        if (type != td2.getFieldType(f2) || type == Type.STRING_TYPE) {
+            return new CompiledJoinPredicate() {
+                public boolean filter(Tuple t1, Tuple t2) {
+                    return t1.getField(f1).compare(op, t2.getField(f2));
+                }
+            };
+        }
+        if (type == Type.INT_TYPE && (op == Predicate.Op.EQUALS || op == Predicate.Op.LIKE)) {
+            return new CompiledJoinPredicate() {
+                public boolean filter(Tuple t1, Tuple t2) {
+                    return ((IntField) t1.getField(f1)).getValue()
+                        == ((IntField) t2.getField(f2)).getValue();
+                }
+            };
+        }
+        boolean[] o = CompiledPredicate.outcomes(op);
+        final boolean lt = o[0], eq = o[1], gt = o[2];
+        if (type == Type.INT_TYPE) {
+            return new CompiledJoinPredicate() {
+                public boolean filter(Tuple t1, Tuple t2) {
+                    int x = ((IntField) t1.getField(f1)).getValue();
+                    int y = ((IntField) t2.getField(f2)).getValue();
+                    return x < y ? lt : x == y ? eq : gt;
+                }
+            };
+        }
+        if (type == Type.LONG_TYPE) {
+            return new CompiledJoinPredicate() {
+                public boolean filter(Tuple t1, Tuple t2) {
+                    long x = ((LongField) t1.getField(f1)).getValue();
+                    long y = ((LongField) t2.getField(f2)).getValue();
+                    return x < y ? lt : x == y ? eq : gt;
+                }
+            };
+        }
+        return new CompiledJoinPredicate() {
+            public boolean filter(Tuple t1, Tuple t2) {
+                int c = Double.compare(((DoubleField) t1.getField(f1)).getValue(),
+                                       ((DoubleField) t2.getField(f2)).getValue());
+                return c < 0 ? lt : c == 0 ? eq : gt;
+            }
+        };
+    }
+}
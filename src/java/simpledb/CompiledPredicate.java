@@ -0,0 +1,184 @@
+package simpledb;
+
+import java.util.List;
+
+/**
+ * A Predicate specialized, when a plan is built, for the type of the field
+ * it tests.  {@link Predicate#filter} looks up the field and dispatches on
+ * both the Field's class and the operator for every tuple; a compiled
+ * predicate instead is one small class per type and operator whose filter
+ * method reads the field's primitive value and makes a single comparison,
+ * so a Filter's inner loop calls just one implementation.
+ * <p>
+ * INT fields get one class per operator.  LONG and DOUBLE fields share one
+ * class per type that maps the sign of the comparison to the result, and
+ * STRING fields fall back to {@link Field#compare}, which is also what LIKE
+ * means for them.  Several predicates compile into a conjunction with
+ * {@link #and}.
+ */
+public abstract class CompiledPredicate {
+
+    /** @return true if t passes the predicate */
+    public abstract boolean filter(Tuple t);
+
+    /**
+     * Specialize p for tuples with schema td.
+     */
+    public static CompiledPredicate compile(Predicate p, TupleDesc td) {
+        final int f = p.getField();
+        final Field operand = p.getOperand();
+        Type type = td.getFieldType(f);
+        if (type == Type.INT_TYPE && operand instanceof IntField)
+            return compileInt(f, p.getOp(), ((IntField) operand).getValue());
+        if (type == Type.LONG_TYPE && operand instanceof LongField)
+            return new LongCompare(f, p.getOp(), ((LongField) operand).getValue());
+        if (type == Type.DOUBLE_TYPE && operand instanceof DoubleField)
+            return new DoubleCompare(f, p.getOp(), ((DoubleField) operand).getValue());
+        final Predicate.Op op = p.getOp();
+        return new CompiledPredicate() {
+            public boolean filter(Tuple t) {
+                return t.getField(f).compare(op, operand);
+            }
+        };
+    }
+
+    /**
+     * @return a predicate that passes the tuples that pass every one of
+     *         ps, testing them in order
+     */
+    public static CompiledPredicate and(List<CompiledPredicate> ps) {
+        if (ps.size() == 1)
+            return ps.get(0);
+        if (ps.size() == 2) {
+            final CompiledPredicate a = ps.get(0), b = ps.get(1);
+            return new CompiledPredicate() {
+                public boolean filter(Tuple t) {
+                    return a.filter(t) && b.filter(t);
+                }
+            };
+        }
+        final CompiledPredicate[] all = ps.toArray(new CompiledPredicate[ps.size()]);
+        return new CompiledPredicate() {
+            public boolean filter(Tuple t) {
+                for (CompiledPredicate p : all) {
+                    if (!p.filter(t))
+                        return false;
+                }
+                return true;
+            }
+        };
+    }
+
+    private static int intValue(Tuple t, int f) {
+        return ((IntField) t.getField(f)).getValue();
+    }
+
+    private static CompiledPredicate compileInt(final int f, Predicate.Op op, final int v) {
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return new CompiledPredicate() {
+                public boolean filter(Tuple t) {
+                    return intValue(t, f) == v;
+                }
+            };
+        case NOT_EQUALS:
+            return new CompiledPredicate() {
+                public boolean filter(Tuple t) {
+                    return intValue(t, f) != v;
+                }
+            };
+        case GREATER_THAN:
+            return new CompiledPredicate() {
+                public boolean filter(Tuple t) {
+                    return intValue(t, f) > v;
+                }
+            };
+        case GREATER_THAN_OR_EQ:
+            return new CompiledPredicate() {
+                public boolean filter(Tuple t) {
+                    return intValue(t, f) >= v;
+                }
+            };
+        case LESS_THAN:
+            return new CompiledPredicate() {
+                public boolean filter(Tuple t) {
+                    return intValue(t, f) < v;
+                }
+            };
+        case LESS_THAN_OR_EQ:
+            return new CompiledPredicate() {
+                public boolean filter(Tuple t) {
+                    return intValue(t, f) <= v;
+                }
+            };
+        default:
+            throw new IllegalArgumentException("unknown operator " + op);
+        }
+    }
+
+    /**
+     * The results of op for a left side less than, equal to and greater
+     * than the right side, in that order.
+     */
+    static boolean[] outcomes(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return new boolean[] { false, true, false };
+        case NOT_EQUALS:
+            return new boolean[] { true, false, true };
+        case GREATER_THAN:
+            return new boolean[] { false, false, true };
+        case GREATER_THAN_OR_EQ:
+            return new boolean[] { false, true, true };
+        case LESS_THAN:
+            return new boolean[] { true, false, false };
+        case LESS_THAN_OR_EQ:
+            return new boolean[] { true, true, false };
+        default:
+            throw new IllegalArgumentException("unknown operator " + op);
+        }
+    }
+
+    private static final class LongCompare extends CompiledPredicate {
+        private final int f;
+        private final long v;
+        private final boolean lt, eq, gt;
+
+        LongCompare(int f, Predicate.Op op, long v) {
+            boolean[] o = outcomes(op);
+            this.f = f;
+            this.v = v;
+            this.lt = o[0];
+            this.eq = o[1];
+            this.gt = o[2];
+        }
+
+        public boolean filter(Tuple t) {
+            long x = ((LongField) t.getField(f)).getValue();
+            return x < v ? lt : x == v ? eq : gt;
+        }
+    }
+
+    private static final class DoubleCompare extends CompiledPredicate {
+        private final int f;
+        private final double v;
+        private final boolean lt, eq, gt;
+
+        DoubleCompare(int f, Predicate.Op op, double v) {
+            boolean[] o = outcomes(op);
+            this.f = f;
+            this.v = v;
+            this.lt = o[0];
+            this.eq = o[1];
+            this.gt = o[2];
+        }
+
+        public boolean filter(Tuple t) {
+            // the same order as DoubleField.compare
+            int c = Double.compare(((DoubleField) t.getField(f)).getValue(), v);
+            return c < 0 ? lt : c == 0 ? eq : gt;
+        }
+    }
+}
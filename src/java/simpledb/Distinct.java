@@ -0,0 +1,235 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Distinct removes duplicate tuples from its child.  It streams: each
+ * tuple is returned as soon as it is read if it has not been seen before,
+ * so the first distinct tuples come out without reading the whole child,
+ * and tuples come out in the order of their first occurrence.
+ * <p>
+ * The tuples seen are held in a hash set up to a memory budget.  Once the
+ * set is full, tuples already in it are still dropped, but other tuples
+ * are hashed into {@link SpillFile} partitions instead of being returned.
+ * Duplicates always land in the same partition, and no spilled tuple
+ * equals one in the set, so after the child is exhausted each partition is
+ * deduplicated in turn by a nested Distinct, which partitions again with a
+ * different hash if it still does not fit.  Past {@link #MAX_DEPTH} levels
+ * the budget is ignored.  Spilled tuples lose their input order.
+ */
+public class Distinct extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default memory budget for the tuples seen, in pages. */
+    public static final int DEFAULT_MEMORY_PAGES = 1000;
+    /** Number of partitions unseen tuples are spilled to. */
+    static final int NUM_PARTITIONS = 16;
+    /** Partitioning levels after which the memory budget is ignored. */
+    static final int MAX_DEPTH = 4;
+
+    DbIterator child;
+    final int memoryPages;
+    final int level;
+
+    HashSet<List<Field>> seen;
+    long maxSeen;
+    SpillFile[] spill;
+    long spilledTuples;
+    // deduplicates the spilled partition being returned, and the next one
+    Distinct sub;
+    int nextSpilled;
+
+    /**
+     * Constructor, with the default memory budget.
+     *
+     * @param child
+     *            The DbIterator to remove duplicates from
+     */
+    public Distinct(DbIterator child) {
+        this(child, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The DbIterator to remove duplicates from
+     * @param memoryPages
+     *            The number of pages' worth of distinct tuples to keep in
+     *            memory before unseen tuples are spilled to disk
+     */
+    public Distinct(DbIterator child, int memoryPages) {
+        this(child, memoryPages, 0);
+    }
+
+    private Distinct(DbIterator child, int memoryPages, int level) {
+        this.child = child;
+        this.memoryPages = memoryPages;
+        this.level = level;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    /**
+     * @return the number of child tuples written to spill files, including
+     *         those written by nested Distincts that have finished
+     */
+    public long getSpilledTuples() {
+        return spilledTuples;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        start();
+        super.open();
+    }
+
+    private void start() {
+        seen = new HashSet<List<Field>>();
+        int perPage = Math.max(1, BufferPool.getPageSize() / getTupleDesc().getSize());
+        maxSeen = level < MAX_DEPTH ? (long) memoryPages * perPage : Long.MAX_VALUE;
+        spill = null;
+        spilledTuples = 0;
+        sub = null;
+        nextSpilled = 0;
+    }
+
+    private static List<Field> key(Tuple t) {
+        Field[] fields = new Field[t.getTupleDesc().numFields()];
+        for (int i = 0; i < fields.length; i++)
+            fields[i] = t.getField(i);
+        return Arrays.asList(fields);
+    }
+
+    /**
+     * Returns the next child tuple not returned before, spilling unseen
+     * tuples once the memory budget is full, then the distinct tuples of
+     * each spilled partition.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            List<Field> key = key(t);
+            if (seen.contains(key))
+                continue;
+            if (spill == null && seen.size() >= maxSeen) {
+                spill = new SpillFile[NUM_PARTITIONS];
+                Debug.log("Distinct level %d: spilling after %d tuples", level, seen.size());
+            }
+            if (spill != null) {
+                spill(key, t);
+                continue;
+            }
+            seen.add(key);
+            return t;
+        }
+        while (true) {
+            if (sub != null && sub.hasNext())
+                return sub.next();
+            closeSub();
+            if (!openNextSpilled())
+                return null;
+        }
+    }
+
+    private void spill(List<Field> key, Tuple t) throws DbException {
+        int h = key.hashCode() ^ (level * 0x9e3779b9);
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        int part = (h & 0x7fffffff) % NUM_PARTITIONS;
+        try {
+            if (spill[part] == null)
+                spill[part] = new SpillFile(getTupleDesc());
+            spill[part].add(t);
+        } catch (IOException e) {
+            throw new DbException("Distinct spill failed: " + e.getMessage());
+        }
+        spilledTuples++;
+    }
+
+    /**
+     * Start deduplicating the next spilled partition.
+     *
+     * @return false if there are none left
+     */
+    private boolean openNextSpilled() throws DbException, TransactionAbortedException {
+        if (spill == null)
+            return false;
+        // the set is no longer needed once the child is exhausted
+        seen.clear();
+        while (nextSpilled < NUM_PARTITIONS) {
+            SpillFile f = spill[nextSpilled++];
+            if (f == null)
+                continue;
+            try {
+                sub = new Distinct(f.iterator(), memoryPages, level + 1);
+            } catch (IOException e) {
+                throw new DbException("Distinct spill failed: " + e.getMessage());
+            }
+            sub.open();
+            return true;
+        }
+        return false;
+    }
+
+    private void closeSub() {
+        if (sub != null) {
+            spilledTuples += sub.getSpilledTuples();
+            sub.close();
+            sub = null;
+        }
+    }
+
+    private void deleteSpill() {
+        if (sub != null) {
+            sub.close();
+            sub = null;
+        }
+        if (spill != null) {
+            for (SpillFile f : spill) {
+                if (f != null)
+                    f.delete();
+            }
+            spill = null;
+        }
+    }
+
+    /**
+     * Start over: the child is rewound and deduplicated again.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        deleteSpill();
+        start();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        deleteSpill();
+        seen = null;
+    }
+
+    /**
+     * See Operator.java for additional notes
+     */
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    /**
+     * See Operator.java for additional notes
+     */
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+
+}
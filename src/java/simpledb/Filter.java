@@ -3,16 +3,18 @@ package simpledb;
 import java.util.*;
 
 /**
- * Filter is an operator that implements a relational select.
+ * Filter is an operator that implements a relational select.  It may test
+ * a conjunction of predicates at once; they are compiled for the child's
+ * schema when the Filter is built (see {@link CompiledPredicate}).
  */
 public class Filter extends Operator {
 
     private static final long serialVersionUID = 1L;
     Predicate p;
+    List<Predicate> ps;
     DbIterator child;
     TupleDesc td;
-    Iterator<Tuple> it;
-    ArrayList<Tuple> tuples;
+    CompiledPredicate compiled;
 
     /**
      * Constructor accepts a predicate to apply and a child operator to read
@@ -24,16 +26,41 @@ public class Filter extends Operator {
      *            The child operator
      */
     public Filter(Predicate p, DbIterator child) {
-        this.p = p;
+        this(Collections.singletonList(p), child);
+    }
+
+    /**
+     * Constructor for a filter passing only the tuples that satisfy every
+     * one of ps, which are tested in order.
+     *
+     * @param ps
+     *            The predicates to filter tuples with; not empty
+     * @param child
+     *            The child operator
+     */
+    public Filter(List<Predicate> ps, DbIterator child) {
+        if (ps.isEmpty())
+            throw new IllegalArgumentException("need at least one predicate");
+        this.p = ps.get(0);
+        this.ps = ps;
         this.child = child;
         this.td = child.getTupleDesc();
-        this.tuples = new ArrayList<Tuple>();
+        List<CompiledPredicate> cs = new ArrayList<CompiledPredicate>(ps.size());
+        for (Predicate pred : ps)
+            cs.add(CompiledPredicate.compile(pred, td));
+        this.compiled = CompiledPredicate.and(cs);
     }
 
+    /** @return the first predicate */
     public Predicate getPredicate() {
         return this.p;
     }
 
+    /** @return all the predicates a tuple must satisfy */
+    public List<Predicate> getPredicates() {
+        return this.ps;
+    }
+
     public TupleDesc getTupleDesc() {
         return td;
     }
@@ -41,23 +68,37 @@ public class Filter extends Operator {
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        Tuple next;
-        while(child.hasNext()) {
-            next = child.next();
-            if(this.p.filter(next))
-                tuples.add(next);
-        }
-        it = tuples.iterator();
         super.open();
     }
 
     public void close() {
         super.close();
-        it = null;
+        child.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = tuples.iterator();
+        child.rewind();
+    }
+
+    /**
+     * Filters a batch at a time by narrowing each child batch's selection
+     * vector; batches with no rows left are skipped.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        TupleBatch batch;
+        while ((batch = TupleBatch.nextBatch(child)) != null) {
+            int n = batch.size();
+            for (Predicate pred : ps) {
+                int[] sel = new int[n];
+                n = pred.filter(batch, sel);
+                batch.select(sel, n);
+                if (n == 0)
+                    break;
+            }
+            if (n > 0)
+                return batch;
+        }
+        return null;
     }
 
     /**
@@ -72,8 +113,11 @@ public class Filter extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        if(it != null && it.hasNext())
-            return it.next();
+        while (child.hasNext()) {
+            Tuple next = child.next();
+            if (compiled.filter(next))
+                return next;
+        }
         return null;
     }
     
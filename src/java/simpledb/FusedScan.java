@@ -0,0 +1,330 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * FusedScan reads a table like {@link SeqScan}, tests a conjunction of
+ * predicates on each tuple and keeps only some of its fields, all in one
+ * pass over each page.  While a page is as it was read from disk, the
+ * predicates are evaluated on the serialized fields in the page's bytes and
+ * only the kept fields of the tuples that pass are decoded, so rejected
+ * tuples and unneeded fields are never materialized.  A page that has been
+ * changed since it was read is scanned through its tuples instead.
+ * <p>
+ * The result is the same as that of a Project of the kept fields over a
+ * Filter of the predicates over a SeqScan of the table, and fields are
+ * named as SeqScan names them.
+ */
+public class FusedScan extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final TransactionId tid;
+    private final int tableid;
+    private final String tableAlias;
+    private final List<Predicate> predicates;
+    private final int[] outFields;
+    private final TupleDesc tableTd;
+    private final TupleDesc td;
+    // the offset of each field of the table within a tuple
+    private final int[] offsets;
+    private final RawPredicate[] raw;
+    private final CompiledPredicate compiled;
+
+    private BloomFilter runtimeFilter;
+    private int filterField;
+    private long filtered;
+
+    private int pageNo;
+    private HeapPage page;
+    private byte[] data;
+    private int slot;
+
+    /**
+     * Test a predicate against a tuple still serialized in a page.
+     */
+    private static abstract class RawPredicate {
+        /**
+         * @param data the page's bytes
+         * @param tuple the offset of the tuple in data
+         */
+        abstract boolean filter(byte[] data, int tuple);
+    }
+
+    /**
+     * Creates a fused scan over the specified table as a part of the
+     * specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan.
+     * @param tableAlias
+     *            the alias of this table, used to name fields as SeqScan
+     *            does
+     * @param predicates
+     *            the predicates every returned tuple satisfies, over the
+     *            fields of the table; may be empty
+     * @param outFields
+     *            the fields of the table to return, in order, or null to
+     *            return all of them
+     */
+    public FusedScan(TransactionId tid, int tableid, String tableAlias,
+                     List<Predicate> predicates, int[] outFields) {
+        this.tid = tid;
+        this.tableid = tableid;
+        this.tableAlias = tableAlias;
+        this.predicates = predicates;
+        this.tableTd = SeqScan.aliasedTupleDesc(tableid, tableAlias);
+        if (outFields == null) {
+            outFields = new int[tableTd.numFields()];
+            for (int i = 0; i < outFields.length; i++)
+                outFields[i] = i;
+        }
+        this.outFields = outFields;
+        Type[] types = new Type[outFields.length];
+        String[] names = new String[outFields.length];
+        for (int i = 0; i < outFields.length; i++) {
+            types[i] = tableTd.getFieldType(outFields[i]);
+            names[i] = tableTd.getFieldName(outFields[i]);
+        }
+        this.td = new TupleDesc(types, names);
+
+        this.offsets = new int[tableTd.numFields()];
+        for (int i = 1; i < offsets.length; i++)
+            offsets[i] = offsets[i - 1] + tableTd.getFieldType(i - 1).getLen();
+        this.raw = new RawPredicate[predicates.size()];
+        List<CompiledPredicate> cs = new ArrayList<CompiledPredicate>(predicates.size());
+        for (int i = 0; i < raw.length; i++) {
+            raw[i] = compile(predicates.get(i));
+            cs.add(CompiledPredicate.compile(predicates.get(i), tableTd));
+        }
+        this.compiled = CompiledPredicate.and(cs);
+    }
+
+    /** @return the id of the table this operator scans */
+    public int getTableId() {
+        return this.tableid;
+    }
+
+    /** @return the alias of the table this operator scans */
+    public String getAlias() {
+        return this.tableAlias;
+    }
+
+    /** @return the transaction this scan runs as part of */
+    public TransactionId getTransactionId() {
+        return this.tid;
+    }
+
+    /** @return the predicates every returned tuple satisfies */
+    public List<Predicate> getPredicates() {
+        return this.predicates;
+    }
+
+    /** @return the fields of the table this scan returns, in order */
+    public int[] getOutFields() {
+        return this.outFields;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        pageNo = 0;
+        page = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        page = null;
+        data = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        pageNo = 0;
+        page = null;
+    }
+
+    /**
+     * Skip, from now on, every tuple whose field fieldIndex is certainly not
+     * in filter, as {@link SeqScan#setRuntimeFilter} does.
+     *
+     * @param filter the filter, or null to remove it
+     * @param fieldIndex the index of the field to test, in this scan's
+     *        TupleDesc
+     */
+    public void setRuntimeFilter(BloomFilter filter, int fieldIndex) {
+        this.runtimeFilter = filter;
+        this.filterField = outFields[fieldIndex];
+    }
+
+    /** @return the number of tuples dropped by runtime filters so far */
+    public long getFilteredTuples() {
+        return filtered;
+    }
+
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        HeapFile hf = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+        while (true) {
+            if (page == null) {
+                if (pageNo >= hf.numPages())
+                    return null;
+                HeapPageId pid = new HeapPageId(tableid, pageNo++);
+                page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                data = page.getRawData();
+                slot = 0;
+            }
+            while (slot < page.numSlots) {
+                int i = slot++;
+                // a tuple inserted into the page since it was read (say by
+                // an INSERT reading this scan) is only in its tuples
+                if (data != null && page.getRawData() != data)
+                    data = null;
+                if (!page.isSlotUsed(i))
+                    continue;
+                Tuple t = data != null ? readRaw(i) : readParsed(i);
+                if (t != null)
+                    return t;
+            }
+            page = null;
+            data = null;
+        }
+    }
+
+    /** @return the tuple in slot i of data if it passes, else null */
+    private Tuple readRaw(int i) {
+        int off = page.tupleOffset(i);
+        for (RawPredicate p : raw) {
+            if (!p.filter(data, off))
+                return null;
+        }
+        if (runtimeFilter != null
+                && !runtimeFilter.mightContain(decode(filterField, off))) {
+            filtered++;
+            return null;
+        }
+        Tuple t = new Tuple(td);
+        for (int j = 0; j < outFields.length; j++)
+            t.setField(j, decode(outFields[j], off));
+        t.setRecordId(new RecordId(page.getId(), i));
+        return t;
+    }
+
+    /** @return the parsed tuple in slot i if it passes, else null */
+    private Tuple readParsed(int i) {
+        Tuple in = page.getTuple(i);
+        if (!compiled.filter(in))
+            return null;
+        if (runtimeFilter != null && !runtimeFilter.mightContain(in.getField(filterField))) {
+            filtered++;
+            return null;
+        }
+        return project(in);
+    }
+
+    /**
+     * @return what this scan returns for the tuple in of its table, or null
+     *         if in fails one of the predicates; used to look tuples up
+     *         through an index instead of scanning
+     */
+    Tuple filterAndProject(Tuple in) {
+        return compiled.filter(in) ? project(in) : null;
+    }
+
+    private Tuple project(Tuple in) {
+        Tuple t = new Tuple(td);
+        for (int j = 0; j < outFields.length; j++)
+            t.setField(j, in.getField(outFields[j]));
+        t.setRecordId(in.getRecordId());
+        return t;
+    }
+
+    /** @return field f of the tuple at offset tuple in data */
+    private Field decode(int f, int tuple) {
+        int off = tuple + offsets[f];
+        switch (tableTd.getFieldType(f)) {
+        case INT_TYPE:
+            return new IntField(readInt(data, off));
+        case LONG_TYPE:
+            return new LongField(readLong(data, off));
+        case DOUBLE_TYPE:
+            return new DoubleField(Double.longBitsToDouble(readLong(data, off)));
+        default:
+            int len = readInt(data, off);
+            return new StringField(new String(data, off + 4, len), Type.STRING_LEN);
+        }
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return (b[off] << 24) | ((b[off + 1] & 0xff) << 16)
+            | ((b[off + 2] & 0xff) << 8) | (b[off + 3] & 0xff);
+    }
+
+    private static long readLong(byte[] b, int off) {
+        return ((long) readInt(b, off) << 32) | (readInt(b, off + 4) & 0xffffffffL);
+    }
+
+    /**
+     * Build a RawPredicate testing p against the serialized field; numeric
+     * fields are compared without decoding them into Fields.
+     */
+    private RawPredicate compile(final Predicate p) {
+        final int off = offsets[p.getField()];
+        boolean[] o = CompiledPredicate.outcomes(p.getOp());
+        final boolean lt = o[0], eq = o[1], gt = o[2];
+        Type type = tableTd.getFieldType(p.getField());
+        Field operand = p.getOperand();
+        if (type == Type.INT_TYPE && operand instanceof IntField) {
+            final int v = ((IntField) operand).getValue();
+            return new RawPredicate() {
+                boolean filter(byte[] data, int tuple) {
+                    int x = readInt(data, tuple + off);
+                    return x < v ? lt : x == v ? eq : gt;
+                }
+            };
+        }
+        if (type == Type.LONG_TYPE && operand instanceof LongField) {
+            final long v = ((LongField) operand).getValue();
+            return new RawPredicate() {
+                boolean filter(byte[] data, int tuple) {
+                    long x = readLong(data, tuple + off);
+                    return x < v ? lt : x == v ? eq : gt;
+                }
+            };
+        }
+        if (type == Type.DOUBLE_TYPE && operand instanceof DoubleField) {
+            final double v = ((DoubleField) operand).getValue();
+            return new RawPredicate() {
+                boolean filter(byte[] data, int tuple) {
+                    // the same order as DoubleField.compare
+                    int c = Double.compare(Double.longBitsToDouble(readLong(data, tuple + off)), v);
+                    return c < 0 ? lt : c == 0 ? eq : gt;
+                }
+            };
+        }
+        return new RawPredicate() {
+            boolean filter(byte[] data, int tuple) {
+                return decode(p.getField(), tuple).compare(p.getOp(), p.getOperand());
+            }
+        };
+    }
+
+    /**
+     * See Operator.java for additional notes
+     */
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[0];
+    }
+
+    /**
+     * See Operator.java for additional notes
+     */
+    @Override
+    public void setChildren(DbIterator[] children) {
+    }
+
+}
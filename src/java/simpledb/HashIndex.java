@@ -0,0 +1,133 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * HashIndex is an in-memory hash index on one field of a table, mapping
+ * each key to the record ids of the tuples that have it.  It is built by
+ * scanning the table the first time it is used, and kept up to date by
+ * {@link BufferPool#insertTuple}.  The index is shared by every
+ * transaction, so the scan runs as a transaction of its own, reading the
+ * newest images of the pages rather than the first caller's snapshot.
+ * <p>
+ * Entries are never removed: deleted tuples, and tuples inserted by
+ * transactions that later aborted, leave stale record ids behind.
+ * {@link #lookup} therefore reads every candidate through the buffer pool
+ * and returns only those whose slot is in use and whose key still matches,
+ * which also means each caller sees the tuples its transaction can see.
+ */
+public class HashIndex {
+
+    private final int tableid;
+    private final int field;
+    private HashMap<Field, ArrayList<RecordId>> entries;
+    private int numEntries;
+    // tuples inserted before the index was built; they may still be in an
+    // optimistic transaction's private pages, where the build can't see them
+    private ArrayList<Tuple> pending = new ArrayList<Tuple>();
+
+    /**
+     * Create an index on a field of a table.  The index is empty until it
+     * is first used.
+     *
+     * @param tableid the table to index
+     * @param field the index of the field to index on
+     */
+    public HashIndex(int tableid, int field) {
+        this.tableid = tableid;
+        this.field = field;
+    }
+
+    public int getTableId() {
+        return tableid;
+    }
+
+    public int getField() {
+        return field;
+    }
+
+    /** Scan the table and index every tuple, if that hasn't been done yet */
+    private void build() throws DbException, TransactionAbortedException {
+        if (entries != null)
+            return;
+        entries = new HashMap<Field, ArrayList<RecordId>>();
+        numEntries = 0;
+        TransactionId tid = new TransactionId();
+        try {
+            DbFileIterator it = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+            it.open();
+            while (it.hasNext())
+                add(it.next());
+            it.close();
+            Database.getBufferPool().transactionComplete(tid);
+        } catch (IOException e) {
+            entries = null;
+            throw new DbException("could not build index: " + e);
+        } catch (DbException e) {
+            entries = null;
+            throw e;
+        } catch (TransactionAbortedException e) {
+            entries = null;
+            throw e;
+        }
+        for (Tuple t : pending)
+            add(t);
+        pending = null;
+    }
+
+    private void add(Tuple t) {
+        Field key = t.getField(field);
+        ArrayList<RecordId> rids = entries.get(key);
+        if (rids == null) {
+            rids = new ArrayList<RecordId>(1);
+            entries.put(key, rids);
+        } else if (rids.contains(t.getRecordId())) {
+            // a slot reused for the same key
+            return;
+        }
+        rids.add(t.getRecordId());
+        numEntries++;
+    }
+
+    /**
+     * Record a tuple that was just inserted into the table.
+     */
+    public synchronized void insert(Tuple t) {
+        if (entries != null)
+            add(t);
+        else
+            pending.add(t);
+    }
+
+    /**
+     * Return the tuples of the table whose indexed field equals key, as
+     * seen by tid.
+     */
+    public synchronized ArrayList<Tuple> lookup(TransactionId tid, Field key)
+        throws DbException, TransactionAbortedException {
+        build();
+        ArrayList<Tuple> result = new ArrayList<Tuple>();
+        ArrayList<RecordId> rids = entries.get(key);
+        if (rids == null)
+            return result;
+        for (RecordId rid : rids) {
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                    rid.getPageId(), Permissions.READ_ONLY);
+            Tuple t = page.getTuple(rid.tupleno());
+            if (t != null && t.getField(field).equals(key))
+                result.add(t);
+        }
+        return result;
+    }
+
+    /**
+     * @return the average number of entries per distinct key, or -1 if the
+     *         index hasn't been built yet
+     */
+    public synchronized double entriesPerKey() {
+        if (entries == null)
+            return -1;
+        return entries.isEmpty() ? 0 : (double) numEntries / entries.size();
+    }
+}
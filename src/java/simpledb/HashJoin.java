@@ -0,0 +1,489 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * HashJoin joins two children on an equality predicate by building a hash
+ * table on one input and probing it with the other.
+ * <p>
+ * Neither input's size is known up front, so open() reads the two children
+ * alternately until one of them runs out; that one is the smaller input and
+ * becomes the build side.  The tuples already read from the other child
+ * are probed first, and the rest of it is then streamed through the hash
+ * table one tuple at a time.
+ * <p>
+ * If both inputs outgrow the memory budget before either runs out, the
+ * join switches to a hybrid hash join on child1: build tuples are hashed
+ * into partitions that stay in memory until the budget is exceeded, at
+ * which point the largest resident partition is written to a
+ * {@link SpillFile} and further tuples for it go to disk.  Probe tuples
+ * that hash to a resident partition are joined right away; the others are
+ * spilled too.  Each pair of spilled partitions is then joined by a nested
+ * HashJoin, which partitions again with a different hash if it still does
+ * not fit.  Past {@link #MAX_DEPTH} levels (e.g., a single key too
+ * frequent to fit) the budget is ignored.
+ * <p>
+ * When the build side fits in memory, a {@link BloomFilter} of its join
+ * keys is pushed down into the probe side's {@link SeqScan} (through any
+ * Filters above it), so probe tuples that cannot match are dropped by the
+ * scan as it reads them rather than being passed up to the join.
+ * <p>
+ * Output tuples are always the left (child1) tuple followed by the right
+ * (child2) tuple, whichever side was built.
+ */
+public class HashJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default memory budget for the hash table, in pages. */
+    public static final int DEFAULT_MEMORY_PAGES = 1000;
+    /** Number of partitions the build side is split into when it spills. */
+    static final int NUM_PARTITIONS = 16;
+    /** Partitioning levels after which the memory budget is ignored. */
+    static final int MAX_DEPTH = 4;
+
+    JoinPredicate p;
+    DbIterator child1;
+    DbIterator child2;
+    TupleDesc td;
+    final int memoryPages;
+    final int level;
+
+    // true if the hash tables hold child1's tuples
+    boolean buildLeft;
+    // one table per partition; null for partitions that were spilled
+    ArrayList<HashMap<Field, ArrayList<Tuple>>> tables;
+    SpillFile[] buildSpill;
+    SpillFile[] probeSpill;
+    long spilledTuples;
+
+    // probe tuples read while deciding which side to build
+    ArrayList<Tuple> probeBuffer;
+    int probeBufferPos;
+    boolean probeDone;
+
+    Tuple probe;
+    ArrayList<Tuple> matches;
+    int matchPos;
+
+    // join of the spilled partition currently being processed
+    HashJoin sub;
+    int nextSpilled;
+
+    // the probe-side scan holding this join's runtime filter, if any
+    DbIterator filteredScan;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on, and uses the default memory budget.
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator
+     *            must be Predicate.Op.EQUALS
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     */
+    public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The equality predicate to join the children on
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     * @param memoryPages
+     *            The number of pages' worth of tuples the join may hold in
+     *            memory before it spills to disk
+     */
+    public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+                    int memoryPages) {
+        this(p, child1, child2, memoryPages, 0);
+    }
+
+    private HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+                     int memoryPages, int level) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("HashJoin requires an equality predicate");
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.memoryPages = memoryPages;
+        this.level = level;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return this.p;
+    }
+
+    /**
+     * @return the field name of join field1, qualified by alias or table name
+     */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /**
+     * @return the field name of join field2, qualified by alias or table name
+     */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    /** @return true if the hash table was built on child1 */
+    boolean buildsLeft() {
+        return buildLeft;
+    }
+
+    /**
+     * @return the number of tuples written to spill files, including those
+     *         written by nested joins that have finished
+     */
+    public long getSpilledTuples() {
+        return spilledTuples;
+    }
+
+    /** @return how many tuples of td fit in the memory budget */
+    private int budget(TupleDesc td) {
+        int perPage = Math.max(1, BufferPool.getPageSize() / td.getSize());
+        return (int) Math.min(Integer.MAX_VALUE, (long) memoryPages * perPage);
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        build();
+        super.open();
+    }
+
+    private void build() throws DbException, TransactionAbortedException {
+        int maxLeft = budget(child1.getTupleDesc());
+        int maxRight = budget(child2.getTupleDesc());
+        boolean bounded = level < MAX_DEPTH;
+
+        ArrayList<Tuple> left = new ArrayList<Tuple>();
+        ArrayList<Tuple> right = new ArrayList<Tuple>();
+        boolean exhausted = false;
+        while (!bounded || left.size() < maxLeft || right.size() < maxRight) {
+            if (!child1.hasNext()) {
+                buildLeft = true;
+                exhausted = true;
+                break;
+            }
+            left.add(child1.next());
+            if (!child2.hasNext()) {
+                buildLeft = false;
+                exhausted = true;
+                break;
+            }
+            right.add(child2.next());
+        }
+
+        tables = new ArrayList<HashMap<Field, ArrayList<Tuple>>>();
+        spilledTuples = 0;
+        if (exhausted) {
+            HashMap<Field, ArrayList<Tuple>> table = new HashMap<Field, ArrayList<Tuple>>();
+            int field = buildLeft ? p.getField1() : p.getField2();
+            for (Tuple t : buildLeft ? left : right)
+                addToTable(table, t.getField(field), t);
+            tables.add(table);
+            buildSpill = null;
+            probeSpill = null;
+            probeBuffer = buildLeft ? right : left;
+            pushRuntimeFilter(table.keySet());
+        } else {
+            buildLeft = true;
+            partitionBuild(left, maxLeft);
+            probeBuffer = right;
+        }
+        probeBufferPos = 0;
+        probeDone = false;
+        probe = null;
+        matches = null;
+        sub = null;
+        nextSpilled = 0;
+    }
+
+    /**
+     * Hash all of child1 into partitions, spilling the largest resident
+     * partition whenever more than maxTuples are held in memory.
+     */
+    private void partitionBuild(ArrayList<Tuple> buffered, int maxTuples)
+        throws DbException, TransactionAbortedException {
+        int[] counts = new int[NUM_PARTITIONS];
+        int resident = 0;
+        for (int i = 0; i < NUM_PARTITIONS; i++)
+            tables.add(new HashMap<Field, ArrayList<Tuple>>());
+        buildSpill = new SpillFile[NUM_PARTITIONS];
+        probeSpill = new SpillFile[NUM_PARTITIONS];
+
+        int pos = 0;
+        while (true) {
+            Tuple t;
+            if (pos < buffered.size()) {
+                // let the buffered copy go as soon as it is hashed
+                t = buffered.set(pos++, null);
+            } else if (child1.hasNext()) {
+                t = child1.next();
+            } else {
+                break;
+            }
+            Field key = t.getField(p.getField1());
+            int part = partition(key);
+            if (buildSpill[part] != null) {
+                spill(buildSpill, part, t);
+                continue;
+            }
+            addToTable(tables.get(part), key, t);
+            counts[part]++;
+            if (++resident > maxTuples) {
+                int victim = 0;
+                for (int i = 1; i < NUM_PARTITIONS; i++) {
+                    if (counts[i] > counts[victim])
+                        victim = i;
+                }
+                for (ArrayList<Tuple> bucket : tables.get(victim).values()) {
+                    for (Tuple s : bucket)
+                        spill(buildSpill, victim, s);
+                }
+                tables.set(victim, null);
+                resident -= counts[victim];
+                counts[victim] = 0;
+            }
+        }
+        int spilled = 0;
+        for (SpillFile f : buildSpill) {
+            if (f != null)
+                spilled++;
+        }
+        Debug.log("HashJoin level %d: %d of %d partitions spilled", level, spilled, NUM_PARTITIONS);
+    }
+
+    /**
+     * Hand a Bloom filter over keys to the scan under the probe child, if
+     * the probe child is a SeqScan or FusedScan, possibly below Filters.
+     */
+    private void pushRuntimeFilter(Set<Field> keys) {
+        DbIterator it = probeChild();
+        while (it instanceof Filter)
+            it = ((Filter) it).getChildren()[0];
+        if (!(it instanceof SeqScan) && !(it instanceof FusedScan))
+            return;
+        BloomFilter filter = new BloomFilter(keys.size());
+        for (Field key : keys)
+            filter.add(key);
+        filteredScan = it;
+        setRuntimeFilter(filteredScan, filter, buildLeft ? p.getField2() : p.getField1());
+    }
+
+    private void clearRuntimeFilter() {
+        if (filteredScan != null) {
+            setRuntimeFilter(filteredScan, null, 0);
+            filteredScan = null;
+        }
+    }
+
+    private static void setRuntimeFilter(DbIterator scan, BloomFilter filter, int field) {
+        if (scan instanceof SeqScan)
+            ((SeqScan) scan).setRuntimeFilter(filter, field);
+        else
+            ((FusedScan) scan).setRuntimeFilter(filter, field);
+    }
+
+    private static void addToTable(HashMap<Field, ArrayList<Tuple>> table, Field key, Tuple t) {
+        ArrayList<Tuple> bucket = table.get(key);
+        if (bucket == null) {
+            bucket = new ArrayList<Tuple>(1);
+            table.put(key, bucket);
+        }
+        bucket.add(t);
+    }
+
+    private void spill(SpillFile[] files, int part, Tuple t) throws DbException {
+        try {
+            if (files[part] == null)
+                files[part] = new SpillFile(t.getTupleDesc());
+            files[part].add(t);
+        } catch (IOException e) {
+            throw new DbException("HashJoin spill failed: " + e.getMessage());
+        }
+        spilledTuples++;
+    }
+
+    /** Pick the partition for key; each level uses a different hash. */
+    private int partition(Field key) {
+        if (tables.size() == 1)
+            return 0;
+        int h = key.hashCode() ^ (level * 0x9e3779b9);
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return (h & 0x7fffffff) % NUM_PARTITIONS;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        cleanup();
+        tables = null;
+        probeBuffer = null;
+    }
+
+    private void cleanup() {
+        clearRuntimeFilter();
+        if (sub != null) {
+            sub.close();
+            sub = null;
+        }
+        deleteAll(buildSpill);
+        deleteAll(probeSpill);
+        probe = null;
+        matches = null;
+    }
+
+    private static void deleteAll(SpillFile[] files) {
+        if (files == null)
+            return;
+        for (int i = 0; i < files.length; i++) {
+            if (files[i] != null) {
+                files[i].delete();
+                files[i] = null;
+            }
+        }
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (buildSpill == null) {
+            // the hash table stays; the probe side is read again from the start
+            probeChild().rewind();
+            probeBuffer = new ArrayList<Tuple>();
+            probeBufferPos = 0;
+            probeDone = false;
+            probe = null;
+            matches = null;
+        } else {
+            // spilled partitions were consumed; start over
+            cleanup();
+            child1.rewind();
+            child2.rewind();
+            build();
+        }
+    }
+
+    private DbIterator probeChild() {
+        return buildLeft ? child2 : child1;
+    }
+
+    private Tuple nextProbe() throws DbException, TransactionAbortedException {
+        if (probeBufferPos < probeBuffer.size())
+            return probeBuffer.get(probeBufferPos++);
+        DbIterator child = probeChild();
+        return child.hasNext() ? child.next() : null;
+    }
+
+    /**
+     * Start joining the next pair of spilled partitions.
+     *
+     * @return false if there are none left
+     */
+    private boolean openNextSpilled() throws DbException, TransactionAbortedException {
+        if (buildSpill == null)
+            return false;
+        while (nextSpilled < NUM_PARTITIONS) {
+            int i = nextSpilled++;
+            if (buildSpill[i] == null || probeSpill[i] == null)
+                continue;
+            try {
+                sub = new HashJoin(p, buildSpill[i].iterator(), probeSpill[i].iterator(),
+                                   memoryPages, level + 1);
+            } catch (IOException e) {
+                throw new DbException("HashJoin spill failed: " + e.getMessage());
+            }
+            sub.open();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (matches != null && matchPos < matches.size()) {
+                Tuple match = matches.get(matchPos++);
+                return buildLeft ? Join.mergeTuples(td, match, probe)
+                                 : Join.mergeTuples(td, probe, match);
+            }
+            if (sub != null) {
+                if (sub.hasNext())
+                    return sub.next();
+                int i = nextSpilled - 1;
+                spilledTuples += sub.getSpilledTuples();
+                sub.close();
+                sub = null;
+                buildSpill[i].delete();
+                buildSpill[i] = null;
+                probeSpill[i].delete();
+                probeSpill[i] = null;
+            }
+            if (!probeDone) {
+                probe = nextProbe();
+                matches = null;
+                if (probe == null) {
+                    probeDone = true;
+                    continue;
+                }
+                Field key = probe.getField(buildLeft ? p.getField2() : p.getField1());
+                int part = partition(key);
+                HashMap<Field, ArrayList<Tuple>> table = tables.get(part);
+                if (table == null) {
+                    spill(probeSpill, part, probe);
+                    continue;
+                }
+                matches = table.get(key);
+                matchPos = 0;
+                continue;
+            }
+            if (!openNextSpilled())
+                return null;
+        }
+    }
+
+    /**
+     * See Operator.java for additional notes
+     */
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{ this.child1, this.child2 };
+    }
+
+    /**
+     * See Operator.java for additional notes
+     */
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+    }
+
+}
@@ -96,7 +96,7 @@ public class HeapFile implements DbFile {
             int offset = BufferPool.PAGE_SIZE * pid.pageNumber();
             byte[] data = page.getPageData();
             f.seek(offset);
-            f.write(data, offset, BufferPool.PAGE_SIZE);
+            f.write(data, 0, BufferPool.PAGE_SIZE);
             f.close();
         } catch (Exception e) {
             throw new IOException("HeapFile Write Page Failed");
@@ -142,14 +142,16 @@ public class HeapFile implements DbFile {
         // System.out.println("Did not find page");
         // System.out.println(this.numPages());
 
-        HeapPageId hpid = new HeapPageId(this.id, this.numPages());
-        HeapPage page = new HeapPage(hpid, new byte[BufferPool.getPageSize()]);
-        page.insertTuple(t);        
-
+        // append an empty page and fill it through the buffer pool, so the
+        // tuple only reaches disk once the page is flushed and snapshot
+        // readers see the empty committed image until then
+        HeapPageId hpid = new HeapPageId(this.id, numPages);
         RandomAccessFile raf = new RandomAccessFile(this.file, "rw");
         raf.seek(BufferPool.getPageSize()*numPages);
-        raf.write(page.getPageData());
+        raf.write(HeapPage.createEmptyPageData());
         raf.close();
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, hpid, Permissions.READ_WRITE);
+        page.insertTuple(t);
         // System.out.println(page.getNumEmptySlots());
         // System.out.println(this.numPages());
 
@@ -184,6 +186,10 @@ public class HeapFile implements DbFile {
         TransactionId tid;
         HeapFile heapfile;
         Tuple next;
+        // tuples whose filterField is not in runtimeFilter are skipped
+        BloomFilter runtimeFilter;
+        int filterField;
+        long filtered;
 
         public HeapFileIterator(HeapFile hf, TransactionId tID) {
             tid = tID;
@@ -196,6 +202,28 @@ public class HeapFile implements DbFile {
             currPage = 0;
         }
 
+        /**
+         * Skip, from now on, every tuple whose field filterField is
+         * certainly not in filter.  Tuples the caller has already read are
+         * not affected.
+         *
+         * @param filter the filter, or null to stop filtering
+         * @param filterField the index of the field to look up
+         */
+        public void setRuntimeFilter(BloomFilter filter, int filterField) {
+            this.runtimeFilter = filter;
+            this.filterField = filterField;
+            if (next != null && filter != null && !filter.mightContain(next.getField(filterField))) {
+                next = null;
+                filtered++;
+            }
+        }
+
+        /** @return the number of tuples dropped by the runtime filter */
+        public long getFilteredTuples() {
+            return filtered;
+        }
+
         public Tuple readNext() {
             if(tuples != null) {
                 if(!tuples.hasNext())
@@ -236,10 +264,15 @@ public class HeapFile implements DbFile {
         }
 
         public boolean hasNext() {
-            if(next==null)
+            while(next==null) {
                 next = readNext();
-            if(next==null)
-                return false;
+                if(next==null)
+                    return false;
+                if(runtimeFilter != null && !runtimeFilter.mightContain(next.getField(filterField))) {
+                    next = null;
+                    filtered++;
+                }
+            }
             return true;
         }
 
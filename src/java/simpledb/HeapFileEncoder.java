@@ -145,6 +145,20 @@ public class HeapFileEncoder {
                     System.out.println ("BAD LINE : " + s);
                 }
             }
+            else if (typeAr[fieldNo] == Type.LONG_TYPE) {
+                try {
+                    pageStream.writeLong(Long.parseLong(s.trim()));
+                } catch (NumberFormatException e) {
+                    System.out.println ("BAD LINE : " + s);
+                }
+            }
+            else if (typeAr[fieldNo] == Type.DOUBLE_TYPE) {
+                try {
+                    pageStream.writeDouble(Double.parseDouble(s.trim()));
+                } catch (NumberFormatException e) {
+                    System.out.println ("BAD LINE : " + s);
+                }
+            }
             else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
                 s = s.trim();
                 int overflow = Type.STRING_LEN - s.length();
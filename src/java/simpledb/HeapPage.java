@@ -22,6 +22,11 @@ public class HeapPage implements Page {
     boolean dirty;
     TransactionId dirtyTransaction;
 
+    // the bytes the page was read from, until a tuple is inserted or deleted
+    private volatile byte[] data;
+    // tuples[] is filled in from data on first use
+    private volatile boolean parsed;
+
     byte[] oldData;
     private final Byte oldDataLock=new Byte((byte)0);
 
@@ -45,24 +50,59 @@ public class HeapPage implements Page {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
+        System.arraycopy(data, 0, header, 0, header.length);
+
+        // the tuples are parsed when first needed, so scans that read the
+        // bytes directly (see FusedScan) never materialize them
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        this.data = data.clone();
+        // neither array is ever written, so they can be shared
+        synchronized(oldDataLock)
+        {
+        oldData = this.data;
+        }
+    }
+
+    /**
+     * Parse every tuple of this page from the bytes it was read from, if
+     * that has not been done yet.
+     */
+    private void parse() {
+        if (parsed)
+            return;
+        synchronized (tuples) {
+            if (parsed)
+                return;
+            DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+            try {
+                dis.skipBytes(header.length);
+                // allocate and read the actual records of this page
+                for (int i=0; i<tuples.length; i++)
+                    tuples[i] = readNextTuple(dis,i);
+            } catch(IOException e){
+                e.printStackTrace();
+            } catch(NoSuchElementException e){
+                e.printStackTrace();
+            }
+            parsed = true;
         }
-        dis.close();
+    }
+
+    /**
+     * @return the bytes this page was read from, or null if tuples have
+     *         been inserted or deleted since, so that only its tuples
+     *         describe it
+     */
+    byte[] getRawData() {
+        return data;
+    }
 
-        setBeforeImage();
+    /** @return the offset in the page data of the tuple in slot i */
+    int tupleOffset(int i) {
+        return header.length + i * td.getSize();
     }
 
     /** Retrieve the number of tuples on this page.
@@ -164,6 +204,7 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
+        parse();
         int len = BufferPool.getPageSize();
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
@@ -256,6 +297,8 @@ public class HeapPage implements Page {
         int tuplenumber = rid.tupleno();
         if(!isSlotUsed(tuplenumber))
             throw new DbException("Tuple already empty");
+        parse();
+        data = null;
         this.markSlotUsed(tuplenumber, false);
         tuples[tuplenumber] = null;
     }
@@ -280,6 +323,8 @@ public class HeapPage implements Page {
         }
         // System.out.println(freeslot);
         if(freeslot > -1) {
+            parse();
+            data = null;
             t.setRecordId(new RecordId(this.pid, freeslot));
             tuples[freeslot] = t;
             markSlotUsed(freeslot, true);
@@ -362,6 +407,16 @@ public class HeapPage implements Page {
         }
     }
 
+    /**
+     * @return the tuple in slot i, or null if the slot is empty
+     */
+    public Tuple getTuple(int i) {
+        if (i < 0 || i >= numSlots || !isSlotUsed(i))
+            return null;
+        parse();
+        return tuples[i];
+    }
+
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
@@ -370,6 +425,7 @@ public class HeapPage implements Page {
         // some code goes here
         // Iterator<Tuple> t=tuples.iterator();
 
+        parse();
         ArrayList<Tuple> tuplelist= new ArrayList<Tuple>();
         int i, len = tuples.length;
         for(i=0;i<len;i++) {
@@ -0,0 +1,132 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin joins an outer child with a base table on an equality
+ * predicate by looking up each outer tuple's join key in a
+ * {@link HashIndex} on the table, instead of scanning the table.
+ * <p>
+ * The inner side is given as the SeqScan or {@link FusedScan} the plan
+ * would otherwise have used; it supplies the table, alias and transaction,
+ * but is never opened.  A FusedScan's predicates and projection are applied
+ * to the tuples the index finds.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    JoinPredicate p;
+    DbIterator child1;
+    DbIterator child2;
+    // child2 if it is a FusedScan, else null
+    FusedScan fused;
+    HashIndex index;
+    TupleDesc td;
+
+    Tuple outer;
+    ArrayList<Tuple> matches;
+    int matchPos;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The equality predicate to join on; field2 must be the
+     *            indexed field
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            The SeqScan or FusedScan of the indexed inner table
+     * @param index
+     *            The index on the field of child2's table that is field2 of
+     *            child2
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2,
+                               HashIndex index) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("IndexNestedLoopJoin requires an equality predicate");
+        if (!index.equals(JoinOptimizer.indexFor(child2, p.getField2())))
+            throw new IllegalArgumentException("index is not on the inner join field");
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.fused = child2 instanceof FusedScan ? (FusedScan) child2 : null;
+        this.index = index;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return this.p;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        outer = null;
+        matches = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        outer = null;
+        matches = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        outer = null;
+        matches = null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (matches == null || matchPos >= matches.size()) {
+            if (!child1.hasNext())
+                return null;
+            outer = child1.next();
+            Field key = outer.getField(p.getField1());
+            if (fused == null) {
+                matches = index.lookup(((SeqScan) child2).getTransactionId(), key);
+            } else {
+                matches = new ArrayList<Tuple>();
+                for (Tuple t : index.lookup(fused.getTransactionId(), key)) {
+                    t = fused.filterAndProject(t);
+                    if (t != null)
+                        matches.add(t);
+                }
+            }
+            matchPos = 0;
+        }
+        return Join.mergeTuples(td, outer, matches.get(matchPos++));
+    }
+
+    /**
+     * See Operator.java for additional notes
+     */
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{ this.child1, this.child2 };
+    }
+
+    /**
+     * See Operator.java for additional notes
+     */
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+        fused = child2 instanceof FusedScan ? (FusedScan) child2 : null;
+    }
+
+}
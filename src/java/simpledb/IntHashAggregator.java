@@ -0,0 +1,228 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Computes an aggregate over IntFields grouped by an IntField (or not
+ * grouped), like {@link IntegerAggregator}, but without boxing: groups live
+ * in an open-addressing hash table of primitive int keys, and each group's
+ * sum, count, min and max are kept in parallel long arrays indexed by the
+ * group's slot.  Merging a tuple is a single probe of the table followed by
+ * four array updates, instead of several HashMap lookups on IntField keys.
+ * <p>
+ * The table uses linear probing and doubles when it is half full.  Sums are
+ * kept as longs, so AVG does not overflow on large groups, and SUM is
+ * returned as a LongField like IntegerAggregator's.
+ */
+public class IntHashAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+    private static final int INITIAL_CAPACITY = 64;
+
+    int gbfield, afield;
+    Op what;
+
+    // slot i is a group iff used[i]; its key is keys[i]
+    private int[] keys;
+    private boolean[] used;
+    private long[] sum;
+    private long[] count;
+    private long[] min;
+    private long[] max;
+    private int size;
+    private int mask;
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfield
+     *            the 0-based index of the group-by field in the tuple, which
+     *            must hold IntFields, or NO_GROUPING if there is no grouping
+     * @param afield
+     *            the 0-based index of the aggregate field in the tuple
+     * @param what
+     *            the aggregation operator
+     */
+    public IntHashAggregator(int gbfield, int afield, Op what) {
+        if (what != Op.MIN && what != Op.MAX && what != Op.SUM
+                && what != Op.AVG && what != Op.COUNT)
+            throw new IllegalArgumentException("unsupported aggregate " + what);
+        this.gbfield = gbfield;
+        this.afield = afield;
+        this.what = what;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        used = new boolean[capacity];
+        sum = new long[capacity];
+        count = new long[capacity];
+        min = new long[capacity];
+        max = new long[capacity];
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return the slot of key, claiming and initializing a free slot if key
+     *         has no group yet
+     */
+    private int slot(int key) {
+        int i = hash(key) & mask;
+        while (used[i]) {
+            if (keys[i] == key)
+                return i;
+            i = (i + 1) & mask;
+        }
+        if (size + 1 > (mask + 1) / 2) {
+            grow();
+            return slot(key);
+        }
+        used[i] = true;
+        keys[i] = key;
+        min[i] = Long.MAX_VALUE;
+        max[i] = Long.MIN_VALUE;
+        size++;
+        return i;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        boolean[] oldUsed = used;
+        long[] oldSum = sum, oldCount = count, oldMin = min, oldMax = max;
+        allocate(oldKeys.length * 2);
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (!oldUsed[j])
+                continue;
+            int i = hash(oldKeys[j]) & mask;
+            while (used[i])
+                i = (i + 1) & mask;
+            used[i] = true;
+            keys[i] = oldKeys[j];
+            sum[i] = oldSum[j];
+            count[i] = oldCount[j];
+            min[i] = oldMin[j];
+            max[i] = oldMax[j];
+            size++;
+        }
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the
+     * constructor. See Aggregator.java for more.
+     *
+     * @param tup
+     *            the Tuple containing an aggregate field and a group-by field
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        int key = gbfield == NO_GROUPING ? 0 : ((IntField) tup.getField(gbfield)).getValue();
+        merge(key, ((IntField) tup.getField(afield)).getValue());
+    }
+
+    /**
+     * Merge the selected rows of batch, in order, straight from its int
+     * columns, stopping early once there are maxGroups groups.
+     *
+     * @return the number of selected rows merged
+     */
+    public int mergeBatch(TupleBatch batch, long maxGroups) {
+        int[] keys = gbfield == NO_GROUPING ? null : batch.intColumn(gbfield);
+        int[] values = batch.intColumn(afield);
+        int n = batch.size();
+        for (int i = 0; i < n; i++) {
+            int r = batch.row(i);
+            merge(keys == null ? 0 : keys[r], values[r]);
+            if (size >= maxGroups)
+                return i + 1;
+        }
+        return n;
+    }
+
+    private void merge(int key, long v) {
+        int i = slot(key);
+        sum[i] += v;
+        count[i]++;
+        if (v < min[i])
+            min[i] = v;
+        if (v > max[i])
+            max[i] = v;
+    }
+
+    /**
+     * Merge the groups of other, a partial aggregate of the same fields and
+     * operator over other tuples, into this one.
+     */
+    public void merge(IntHashAggregator other) {
+        for (int j = 0; j < other.keys.length; j++) {
+            if (!other.used[j])
+                continue;
+            int i = slot(other.keys[j]);
+            sum[i] += other.sum[j];
+            count[i] += other.count[j];
+            if (other.min[j] < min[i])
+                min[i] = other.min[j];
+            if (other.max[j] > max[i])
+                max[i] = other.max[j];
+        }
+    }
+
+    public int numGroups() {
+        return size;
+    }
+
+    public boolean hasGroup(Tuple tup) {
+        int key = gbfield == NO_GROUPING ? 0 : ((IntField) tup.getField(gbfield)).getValue();
+        int i = hash(key) & mask;
+        while (used[i]) {
+            if (keys[i] == key)
+                return true;
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Returns a DbIterator over group aggregate results.
+     *
+     * @return a DbIterator whose tuples are the pair (groupVal, aggregateVal)
+     *         if using group, or a single (aggregateVal) if no grouping. The
+     *         aggregateVal is determined by the type of aggregate specified in
+     *         the constructor.
+     */
+    public DbIterator iterator() {
+        TupleDesc td;
+        Type atype = Aggregate.resultType(what, Type.INT_TYPE);
+        if (gbfield == NO_GROUPING)
+            td = new TupleDesc(new Type[]{atype}, new String[] {"Aggregate"});
+        else
+            td = new TupleDesc(new Type[]{Type.INT_TYPE, atype}, new String[] {"Group By Field","Aggregate"});
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>(size);
+        for (int i = 0; i < keys.length; i++) {
+            if (!used[i])
+                continue;
+            Field aggregate;
+            switch (what) {
+            case MIN: aggregate = new IntField((int) min[i]); break;
+            case MAX: aggregate = new IntField((int) max[i]); break;
+            case COUNT: aggregate = new IntField((int) count[i]); break;
+            default: aggregate = Aggregate.sumOrAvg(what, Type.INT_TYPE, sum[i], 0, count[i]);
+            }
+            Tuple tuple = new Tuple(td);
+            if (gbfield == NO_GROUPING) {
+                tuple.setField(0, aggregate);
+            } else {
+                tuple.setField(0, new IntField(keys[i]));
+                tuple.setField(1, aggregate);
+            }
+            tuples.add(tuple);
+        }
+        return new TupleIterator(td, tuples);
+    }
+
+}
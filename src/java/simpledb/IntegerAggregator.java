@@ -1,7 +1,9 @@
 package simpledb;
 import java.util.*;
 /**
- * Computes some aggregate over a set of IntFields.
+ * Computes some aggregate over a set of IntFields.  Values are accumulated
+ * in longs, so SUM, which is returned as a LongField, and the AVG numerator
+ * do not overflow.
  */
 public class IntegerAggregator implements Aggregator {
 
@@ -9,7 +11,7 @@ public class IntegerAggregator implements Aggregator {
     int gbfield, afield;
     Type gbfieldtype;
     Op what;
-    HashMap<Field, Integer> data;
+    HashMap<Field, Long> data;
     HashMap<Field, Integer> count;
     /**
      * Aggregate constructor
@@ -31,7 +33,7 @@ public class IntegerAggregator implements Aggregator {
         this.afield = afield;
         this.gbfieldtype = gbfieldtype;
         this.what = what;
-        data = new HashMap<Field, Integer>();
+        data = new HashMap<Field, Long>();
         count = new HashMap<Field, Integer>();
     }
 
@@ -52,9 +54,8 @@ public class IntegerAggregator implements Aggregator {
             data.put(groupbyfield,this.initialize());
             count.put(groupbyfield,0);
         }
-        int currentvalue = data.get(groupbyfield);
-        int currentcount = count.get(groupbyfield);
-        int newvalue = currentvalue;
+        long currentvalue = data.get(groupbyfield);
+        long newvalue = currentvalue;
         if(this.what == Op.MIN) {
             if(currentvalue > aggregatefield)
                 newvalue = aggregatefield;
@@ -71,7 +72,15 @@ public class IntegerAggregator implements Aggregator {
         count.put(groupbyfield, c+1);
     }
 
-    public int initialize() {
+    public int numGroups() {
+        return data.size();
+    }
+
+    public boolean hasGroup(Tuple tup) {
+        return data.containsKey(gbfield == -1 ? null : tup.getField(gbfield));
+    }
+
+    public long initialize() {
         if(this.what == Op.MIN)
             return Integer.MAX_VALUE;
         if(this.what == Op.MAX) 
@@ -95,28 +104,29 @@ public class IntegerAggregator implements Aggregator {
         TupleDesc td;
         Tuple tuple;
         Field field;
+        Type atype = Aggregate.resultType(what, Type.INT_TYPE);
         if(gbfield==-1) {
-            td = new TupleDesc(new Type[]{Type.INT_TYPE}, new String[] {"Aggregate"});
+            td = new TupleDesc(new Type[]{atype}, new String[] {"Aggregate"});
         }
         else
-            td = new TupleDesc(new Type[]{gbfieldtype, Type.INT_TYPE}, new String[] {"Group By Field","Aggregate"});
+            td = new TupleDesc(new Type[]{gbfieldtype, atype}, new String[] {"Group By Field","Aggregate"});
         while(it.hasNext()) {
             field = it.next();
             tuple = new Tuple(td);
-            int aggregate;
-            if(what == Op.AVG) {
-                aggregate = (int) (1.0*data.get(field)/count.get(field));
+            Field aggregate;
+            if(what == Op.AVG || what == Op.SUM) {
+                aggregate = Aggregate.sumOrAvg(what, Type.INT_TYPE, data.get(field), 0, count.get(field));
             }
             else if(what == Op.COUNT) {
-                aggregate = count.get(field);
+                aggregate = new IntField(count.get(field));
             }
             else
-                aggregate = data.get(field);
+                aggregate = new IntField((int) (long) data.get(field));
             if(gbfield == -1)
-                tuple.setField(0, new IntField(aggregate)); 
+                tuple.setField(0, aggregate); 
             else {
                 tuple.setField(0, field);
-                tuple.setField(1, new IntField(aggregate)); 
+                tuple.setField(1, aggregate); 
             }
             tuples.add(tuple);
         }
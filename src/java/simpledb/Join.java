@@ -4,18 +4,35 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * It is a block nested-loops join: it reads a block of outer (child1)
+ * tuples, as many as fit in its memory budget, then scans the inner
+ * (child2) once, comparing each inner tuple with every tuple of the block.
+ * The inner is rescanned once per block rather than once per outer tuple,
+ * and results are produced as they are found, so nothing but the current
+ * block is held in memory.
  */
 public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
     JoinPredicate p;
+    CompiledJoinPredicate compiled;
     DbIterator child1;
     DbIterator child2;
     TupleDesc td1;
     TupleDesc td2;
     TupleDesc td;
-    Iterator<Tuple> it;
-    ArrayList<Tuple> tuples;
+
+    /** Default size of a block of outer tuples, in pages. */
+    public static final int DEFAULT_BLOCK_PAGES = 100;
+    final int blockTuples;
+
+    ArrayList<Tuple> block;
+    // the inner tuple being compared with the block, and the position of
+    // the next block tuple to compare it with
+    Tuple inner;
+    int blockPos;
+    boolean outerDone;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -29,13 +46,40 @@ public class Join extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public Join(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_BLOCK_PAGES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param blockPages
+     *            The number of pages' worth of outer tuples to hold per
+     *            scan of the inner relation
+     */
+    public Join(JoinPredicate p, DbIterator child1, DbIterator child2, int blockPages) {
         this.p = p;
         this.child1 = child1;
         this.child2 = child2;
         this.td1 = this.child1.getTupleDesc();
         this.td2 = this.child2.getTupleDesc();
         td = TupleDesc.merge(this.td1,this.td2);
-        this.tuples = new ArrayList<Tuple>();
+        compiled = CompiledJoinPredicate.compile(p, td1, td2);
+        this.blockTuples = blockTuples(td1, blockPages);
+    }
+
+    /**
+     * @return the number of outer tuples of schema td that fit in a block
+     *         of blockPages pages
+     */
+    static int blockTuples(TupleDesc td, int blockPages) {
+        int perPage = Math.max(1, BufferPool.getPageSize() / td.getSize());
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, (long) blockPages * perPage));
     }
 
     public JoinPredicate getJoinPredicate() {
@@ -73,37 +117,59 @@ public class Join extends Operator {
             TransactionAbortedException {
         child1.open();
         child2.open();
+        block = new ArrayList<Tuple>();
+        inner = null;
+        outerDone = false;
+        super.open();
+    }
 
-        Tuple next,next1,next2;
-        int i,j,l1 = td1.fields.size(), l2 = td2.fields.size();
-        while(child1.hasNext()) {
-            next1 = child1.next();
-            child2.rewind();
-            while(child2.hasNext()) {
-                next2 = child2.next();
-                if(this.p.filter(next1,next2)) {
-                    next = new Tuple(td);
-                    for(i=0;i<l1;i++) 
-                        next.setField(i,next1.getField(i));
-                    for(j=0;j<l2;j++) 
-                        next.setField(l1 + j,next2.getField(j));
-                    tuples.add(next);
-                }
-        
-            }
+    /**
+     * Read the next block of outer tuples and restart the inner scan.
+     *
+     * @return false if the outer relation is exhausted
+     */
+    private boolean nextBlock() throws DbException, TransactionAbortedException {
+        block.clear();
+        inner = null;
+        while (block.size() < blockTuples && child1.hasNext())
+            block.add(child1.next());
+        if (block.isEmpty()) {
+            outerDone = true;
+            return false;
         }
+        child2.rewind();
+        return true;
+    }
 
-        it = tuples.iterator();
-        super.open();
+    /**
+     * Concatenate a left and a right tuple into a tuple of the joined
+     * schema td.
+     */
+    static Tuple mergeTuples(TupleDesc td, Tuple left, Tuple right) {
+        Tuple next = new Tuple(td);
+        int l1 = left.fields.size(), l2 = right.fields.size();
+        for (int i = 0; i < l1; i++)
+            next.setField(i, left.getField(i));
+        for (int j = 0; j < l2; j++)
+            next.setField(l1 + j, right.getField(j));
+        return next;
     }
 
     public void close() {
         super.close();
-        it = null;
+        child1.close();
+        child2.close();
+        block = null;
+        inner = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = tuples.iterator();
+        child1.rewind();
+        if (block == null)
+            block = new ArrayList<Tuple>();
+        block.clear();
+        inner = null;
+        outerDone = false;
     }
 
     /**
@@ -125,9 +191,21 @@ public class Join extends Operator {
      * @see JoinPredicate#filter
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        
-        if(it != null && it.hasNext())
-            return it.next();
+        while (!outerDone) {
+            if (inner != null) {
+                while (blockPos < block.size()) {
+                    Tuple outer = block.get(blockPos++);
+                    if (compiled.filter(outer, inner))
+                        return mergeTuples(td, outer, inner);
+                }
+            }
+            if (!block.isEmpty() && child2.hasNext()) {
+                inner = child2.next();
+                blockPos = 0;
+            } else if (!nextBlock()) {
+                return null;
+            }
+        }
         return null;
     }
 
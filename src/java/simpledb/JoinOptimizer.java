@@ -44,6 +44,19 @@ public class JoinOptimizer {
      */
     public static DbIterator instantiateJoin(LogicalJoinNode lj,
             DbIterator plan1, DbIterator plan2) throws ParsingException {
+        return instantiateJoin(lj, plan1, plan2, false);
+    }
+
+    /**
+     * Return the best iterator for a given logical join, as
+     * {@link #instantiateJoin(LogicalJoinNode, DbIterator, DbIterator)}
+     * does, except that if pipelined is true equi-joins use
+     * {@link SymmetricHashJoin}, which returns matches as soon as both
+     * tuples have been read, instead of {@link HashJoin}, which reads one
+     * input in full first.
+     */
+    public static DbIterator instantiateJoin(LogicalJoinNode lj,
+            DbIterator plan1, DbIterator plan2, boolean pipelined) throws ParsingException {
 
         int t1id = 0, t2id = 0;
         DbIterator j;
@@ -68,12 +81,63 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        if (lj instanceof LogicalSubplanJoinNode)
+            j = new SemiJoin(p, plan1, plan2, ((LogicalSubplanJoinNode) lj).anti);
+        else if (lj.p == Predicate.Op.EQUALS && indexFor(plan2, t2id) != null)
+            j = new IndexNestedLoopJoin(p, plan1, plan2, indexFor(plan2, t2id));
+        else if (lj.p == Predicate.Op.EQUALS && pipelined)
+            j = new SymmetricHashJoin(p, plan1, plan2);
+        else if (lj.p == Predicate.Op.EQUALS)
+            j = new HashJoin(p, plan1, plan2);
+        else if (isRangeOp(lj.p))
+            j = new SortMergeJoin(p, plan1, plan2);
+        else
+            j = new Join(p,plan1,plan2);
 
         return j;
 
     }
 
+    /**
+     * @return the index on the table field that is field of plan, if plan
+     *         is a SeqScan or FusedScan of a table with such an index,
+     *         otherwise null
+     */
+    static HashIndex indexFor(DbIterator plan, int field) {
+        if (plan instanceof SeqScan)
+            return Database.getCatalog().getIndex(((SeqScan) plan).getTableId(), field);
+        if (plan instanceof FusedScan) {
+            FusedScan scan = (FusedScan) plan;
+            return Database.getCatalog().getIndex(scan.getTableId(), scan.getOutFields()[field]);
+        }
+        return null;
+    }
+
+    /**
+     * @return the index an index nested-loops join would use for j, or
+     *         null if its inner is not an indexed base table
+     */
+    private HashIndex indexFor(LogicalJoinNode j) {
+        if (p == null || j.p != Predicate.Op.EQUALS)
+            return null;
+        Integer tableid = p.getTableId(j.t2Alias);
+        if (tableid == null)
+            return null;
+        int field;
+        try {
+            field = Database.getCatalog().getTupleDesc(tableid).fieldNameToIndex(j.f2PureName);
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+        return Database.getCatalog().getIndex(tableid, field);
+    }
+
+    /** @return true for the inequality operators SortMergeJoin is used for */
+    static boolean isRangeOp(Predicate.Op op) {
+        return op == Predicate.Op.LESS_THAN || op == Predicate.Op.LESS_THAN_OR_EQ
+            || op == Predicate.Op.GREATER_THAN || op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
     /**
      * Estimate the cost of a join.
      * 
@@ -106,16 +170,48 @@ public class JoinOptimizer {
             // A LogicalSubplanJoinNode represents a subquery.
             // You do not need to implement support for these for Lab 3.
             return card1 + cost1 + cost2;
+        } else if (indexFor(j) != null) {
+            // index nested loops: one lookup per outer tuple, each reading
+            // (at worst) one page per match; building the index the first
+            // time costs a scan of the inner
+            HashIndex index = indexFor(j);
+            double perKey = index.entriesPerKey();
+            double build = perKey < 0 ? cost2 : 0;
+            return cost1 + build + card1 * Math.max(1.0, perKey) * TableStats.IOCOSTPERPAGE;
+        } else if (j.p == Predicate.Op.EQUALS) {
+            // hash join: read each input once, hash every tuple of one and
+            // probe with every tuple of the other
+            return cost1 + cost2 + card1 + card2;
+        } else if (isRangeOp(j.p)) {
+            // sort-merge: sort both inputs, then touch only the pairs that
+            // join (about a third of them for a band predicate)
+            return cost1 + cost2 + sortCost(card1) + sortCost(card2)
+                + (double) card1 * card2 / 3;
         } else {
-            // Insert your code here.
-
-            // HINT: You likely only need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            return -1.0;
+            // block nested loops: scan the inner once per block of outer
+            // tuples and apply the predicate to every pair
+            double blocks = Math.ceil((double) card1 / blockTuples(j));
+            return cost1 + blocks * cost2 + (double) card1 * card2;
         }
     }
 
+    /**
+     * @return the number of outer tuples a Join for j holds per scan of its
+     *         inner, judged by the outer table's width
+     */
+    private int blockTuples(LogicalJoinNode j) {
+        Integer tableid = p == null ? null : p.getTableId(j.t1Alias);
+        if (tableid == null)
+            return Join.DEFAULT_BLOCK_PAGES;
+        return Join.blockTuples(Database.getCatalog().getTupleDesc(tableid),
+                                Join.DEFAULT_BLOCK_PAGES);
+    }
+
+    /** @return the number of comparisons needed to sort card tuples */
+    private static double sortCost(int card) {
+        return card <= 1 ? 0 : card * (Math.log(card) / Math.log(2));
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -0,0 +1,130 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * KllSketch estimates quantiles of a stream of numbers in space that grows
+ * only with the logarithm of the stream's length (Karnin, Lang and
+ * Liberty's KLL sketch).  Values are kept in a stack of compactors: level
+ * h holds values that each stand for 2^h input values.  When the sketch
+ * is over capacity, the lowest full level is sorted and every other value,
+ * starting at a random offset, is promoted to the next level while the
+ * rest are dropped.  Upper levels get capacity {@link #K}, shrinking by
+ * two thirds per level below, so with K = 200 the rank error is around
+ * 1.5% of the input size.
+ * <p>
+ * Sketches merge by concatenating their levels and compacting, so partial
+ * sketches built over disjoint parts of the input combine into a sketch
+ * of the whole input.  Values are kept as doubles.
+ */
+public class KllSketch {
+
+    /** Capacity of the top level. */
+    static final int K = 200;
+    private static final double DECAY = 2.0 / 3;
+
+    // levels[h][0 .. sizes[h]) are the values at level h
+    private double[][] levels = new double[1][8];
+    private int[] sizes = new int[1];
+    private long n;
+    private final Random random = new Random(0x5eed);
+
+    /** Add v to the sketch. */
+    public void add(double v) {
+        append(0, v);
+        n++;
+        if (sizes[0] >= capacity(0))
+            compress();
+    }
+
+    /** Fold other into this sketch, as though its values had been added here. */
+    public void merge(KllSketch other) {
+        for (int h = 0; h < other.sizes.length; h++) {
+            for (int i = 0; i < other.sizes[h]; i++)
+                append(h, other.levels[h][i]);
+        }
+        n += other.n;
+        compress();
+    }
+
+    /** @return the number of values added, including merged sketches' */
+    public long count() {
+        return n;
+    }
+
+    /**
+     * @return a retained value whose estimated rank is q times the number of
+     *         values added
+     * @throws NoSuchElementException if the sketch is empty
+     */
+    public double quantile(double q) {
+        if (n == 0)
+            throw new NoSuchElementException("empty sketch");
+        int total = 0;
+        for (int size : sizes)
+            total += size;
+        double[] values = new double[total];
+        long[] weights = new long[total];
+        Integer[] order = new Integer[total];
+        int j = 0;
+        for (int h = 0; h < sizes.length; h++) {
+            for (int i = 0; i < sizes[h]; i++, j++) {
+                values[j] = levels[h][i];
+                weights[j] = 1L << h;
+                order[j] = j;
+            }
+        }
+        final double[] vs = values;
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Double.compare(vs[a], vs[b]);
+            }
+        });
+        double target = q * n;
+        long seen = 0;
+        for (Integer i : order) {
+            seen += weights[i];
+            if (seen >= target)
+                return values[i];
+        }
+        return values[order[total - 1]];
+    }
+
+    private int capacity(int h) {
+        int depth = sizes.length - 1 - h;
+        return Math.max(2, (int) Math.ceil(K * Math.pow(DECAY, depth)));
+    }
+
+    private void append(int h, double v) {
+        if (h >= sizes.length) {
+            levels = Arrays.copyOf(levels, h + 1);
+            sizes = Arrays.copyOf(sizes, h + 1);
+            for (int i = 0; i <= h; i++) {
+                if (levels[i] == null)
+                    levels[i] = new double[8];
+            }
+        }
+        if (sizes[h] == levels[h].length)
+            levels[h] = Arrays.copyOf(levels[h], sizes[h] * 2);
+        levels[h][sizes[h]++] = v;
+    }
+
+    /** Compact levels, lowest first, until every level is within capacity. */
+    private void compress() {
+        // sizes.length is read on every pass, so a level added by a
+        // promotion is checked as well
+        for (int h = 0; h < sizes.length; h++) {
+            if (sizes[h] < capacity(h))
+                continue;
+            double[] level = levels[h];
+            int size = sizes[h];
+            Arrays.sort(level, 0, size);
+            // an odd value out stays behind so no weight is lost
+            int keep = size % 2;
+            int offset = keep + random.nextInt(2);
+            for (int i = offset; i < size; i += 2)
+                append(h + 1, level[i]);
+            sizes[h] = keep;
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package simpledb;
 import java.util.Map;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Vector;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -29,12 +32,16 @@ public class LogicalPlan {
     private HashMap<String,Integer> tableMap;
 
     private Vector<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private Vector<String> groupByFields = new Vector<String>();
     private boolean hasAgg = false;
-    private String aggOp;
-    private String aggField;
+    private Vector<String> aggOps = new Vector<String>();
+    private Vector<String> aggFields = new Vector<String>();
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private int limit = -1;
+    private boolean distinct = false;
+    // plan equi-joins to produce their first rows early (see setPipelined)
+    private boolean pipelined = false;
     private String query;
 //    private Query owner;
 
@@ -146,12 +153,21 @@ public class LogicalPlan {
      *      or is not in one of the tables added via {@link #addScan}
      */
     public void addJoin( String joinField1, DbIterator joinField2, Predicate.Op pred) throws ParsingException {
+        addJoin(joinField1, joinField2, pred, false);
+    }
+
+    /** Add a join between a field and a subquery, keeping the tuples of
+     *  joinField1's table that have a match in the subquery or, if anti is
+     *  true, those that have none (as in NOT IN).
+     *  @see #addJoin(String, DbIterator, Predicate.Op)
+     */
+    public void addJoin( String joinField1, DbIterator joinField2, Predicate.Op pred, boolean anti) throws ParsingException {
         joinField1 = disambiguateName(joinField1);
 
         String table1 = joinField1.split("[.]")[0];
         String pureField = joinField1.split("[.]")[1];
 
-        LogicalSubplanJoinNode lj = new LogicalSubplanJoinNode(table1,pureField, joinField2, pred);
+        LogicalSubplanJoinNode lj = new LogicalSubplanJoinNode(table1,pureField, joinField2, pred, anti);
         System.out.println("Added subplan join on " + joinField1);
         joins.addElement(lj);
     }
@@ -186,23 +202,36 @@ public class LogicalPlan {
     }
     
     /** Add an aggregate over the field with the specified grouping to
-        the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        the query.  A query may have several aggregates, which are all
+        computed in one pass; they share the GROUP BY fields.
         @param op the aggregation operator
-        @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param afield the field to aggregate over, or * for COUNT(*)
+        @param gfield a field to group by, or null to leave the grouping as
+        set by earlier calls and {@link #addGroupBy}
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
         afield=disambiguateName(afield);
+        if (afield.equals("*"))
+            afield="null.*";
         if (gfield!=null)
-            gfield=disambiguateName(gfield);
-        aggOp = op;
-        aggField = afield;
-        groupByField = gfield;
+            addGroupBy(gfield);
+        aggOps.addElement(op);
+        aggFields.addElement(afield);
         hasAgg = true;
     }
 
+    /** Add a field to the GROUP BY list of the query.  Fields are grouped
+        on in the order they are added; adding a field twice has no effect.
+        @param gfield the field to group by
+     * @throws ParsingException 
+    */
+    public void addGroupBy(String gfield) throws ParsingException {
+        gfield=disambiguateName(gfield);
+        if (!groupByFields.contains(gfield))
+            groupByFields.addElement(gfield);
+    }
+
     /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
         a single ORDER BY field.
         @param field the field to order by
@@ -216,6 +245,30 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Add a LIMIT clause: only the first n result tuples are returned.
+        With an ORDER BY, the plan keeps just the best n tuples instead of
+        sorting its whole input.
+        @param n the number of tuples to return
+    */
+    public void addLimit(int n) {
+        limit = n;
+    }
+
+    /** Make this a SELECT DISTINCT: duplicate result tuples are dropped,
+        before any LIMIT is applied.
+    */
+    public void setDistinct() {
+        distinct = true;
+    }
+
+    /** Choose whether equi-joins are planned to produce their first rows
+        as early as possible rather than to finish soonest; see
+        {@link JoinOptimizer#instantiateJoin(LogicalJoinNode, DbIterator, DbIterator, boolean)}.
+    */
+    public void setPipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -258,6 +311,20 @@ public class LogicalPlan {
 
     }
 
+    /** Determine whether the tuples of a physical plan come out sorted on
+     *  one of their fields, so that equal values of it are adjacent.  Of
+     *  the operators physicalPlan puts below an aggregate, only a
+     *  SortMergeJoin (which it uses for range joins) orders its output, on
+     *  its left join field.
+     *  @param node the plan
+     *  @param field the index of the field in node's TupleDesc
+     *  @return true if node is known to be ordered on field
+     */
+    static boolean isOrderedOn(DbIterator node, int field) {
+        return node instanceof SortMergeJoin
+            && ((SortMergeJoin) node).getJoinPredicate().getField1() == field;
+    }
+
     /** Convert the aggregate operator name s into an Aggregator.op operation.
      *  @throws ParsingException if s is not a valid operator name 
      */
@@ -268,9 +335,69 @@ public class LogicalPlan {
         if (s.equals("COUNT")) return Aggregator.Op.COUNT;
         if (s.equals("MIN")) return Aggregator.Op.MIN;
         if (s.equals("MAX")) return Aggregator.Op.MAX;
+        if (s.equals("APPROX_COUNT_DISTINCT")) return Aggregator.Op.APPROX_COUNT_DISTINCT;
+        if (s.equals("APPROX_MEDIAN")) return Aggregator.Op.APPROX_MEDIAN;
+        if (s.equals("APPROX_P90")) return Aggregator.Op.APPROX_P90;
+        if (s.equals("APPROX_P99")) return Aggregator.Op.APPROX_P99;
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /**
+     * @return the names of the fields the select list, aggregates, grouping,
+     *         ordering and joins of this plan refer to, or null if it
+     *         selects every field
+     */
+    private Set<String> usedFields() {
+        Set<String> used = new HashSet<String>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.aggOp == null && si.fname.equals("null.*"))
+                return null;
+            used.add(si.fname);
+        }
+        used.addAll(aggFields);
+        used.addAll(groupByFields);
+        if (hasOrderBy)
+            used.add(oByField);
+        for (LogicalJoinNode lj : joins) {
+            used.add(lj.f1QuantifiedName);
+            used.add(lj.f2QuantifiedName);
+        }
+        return used;
+    }
+
+    /**
+     * @return the indexes of the fields of a scan of table alias, with
+     *         schema td, that are in used, or null if all of them are needed
+     *         or a name in used cannot be found in td
+     */
+    private static int[] keptFields(TupleDesc td, String alias, Set<String> used) {
+        if (used == null)
+            return null;
+        ArrayList<Integer> keep = new ArrayList<Integer>();
+        for (String name : used) {
+            if (name == null || !name.startsWith(alias + "."))
+                continue;
+            try {
+                td.fieldNameToIndex(name);
+            } catch (NoSuchElementException e) {
+                return null;
+            }
+        }
+        for (int i = 0; i < td.numFields(); i++) {
+            if (used.contains(td.getFieldName(i)))
+                keep.add(i);
+        }
+        if (keep.size() == td.numFields())
+            return null;
+        // COUNT(*) and joins that only filter still need a field per tuple
+        if (keep.isEmpty())
+            keep.add(0);
+        int[] fields = new int[keep.size()];
+        for (int i = 0; i < fields.length; i++)
+            fields[i] = keep.get(i);
+        return fields;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link DbIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned DbIterator will run as a part of
@@ -306,6 +433,8 @@ public class LogicalPlan {
 
         }
 
+        // the predicates on each table are tested by a single Filter
+        HashMap<String,ArrayList<Predicate>> tablePredicates = new HashMap<String,ArrayList<Predicate>>();
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -323,10 +452,19 @@ public class LogicalPlan {
             } catch (java.util.NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c).intValue());
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            try {
+                if (ftyp == Type.INT_TYPE)
+                    f = new IntField(Integer.parseInt(lf.c));
+                else if (ftyp == Type.LONG_TYPE)
+                    f = new LongField(Long.parseLong(lf.c));
+                else if (ftyp == Type.DOUBLE_TYPE)
+                    f = new DoubleField(Double.parseDouble(lf.c));
+                else
+                    f = new StringField(lf.c, Type.STRING_LEN);
+            } catch (NumberFormatException e) {
+                throw new ParsingException("Value " + lf.c + " is not a number, expected by "
+                                           + lf.fieldQuantifiedName);
+            }
 
             Predicate p = null;
             try {
@@ -334,7 +472,9 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            if (!tablePredicates.containsKey(lf.tableAlias))
+                tablePredicates.put(lf.tableAlias, new ArrayList<Predicate>());
+            tablePredicates.get(lf.tableAlias).add(p);
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
@@ -343,6 +483,19 @@ public class LogicalPlan {
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
+        // a FusedScan tests a table's predicates and drops the fields
+        // nothing above it uses as it reads each page
+        Set<String> used = usedFields();
+        for (LogicalScanNode table : tables) {
+            SeqScan ss = (SeqScan) subplanMap.get(table.alias);
+            List<Predicate> preds = tablePredicates.get(table.alias);
+            int[] keep = keptFields(ss.getTupleDesc(), table.alias, used);
+            if (preds == null && keep == null)
+                continue;
+            if (preds == null)
+                preds = new ArrayList<Predicate>();
+            subplanMap.put(table.alias, new FusedScan(t, ss.getTableId(), table.alias, preds, keep));
+        }
         
         JoinOptimizer jo = new JoinOptimizer(this,joins);
 
@@ -382,7 +535,7 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
             
             DbIterator j;
-            j = jo.instantiateJoin(lj,plan1,plan2);
+            j = JoinOptimizer.instantiateJoin(lj,plan1,plan2,pipelined);
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -408,36 +561,63 @@ public class LogicalPlan {
         
         DbIterator node =  (DbIterator)(subplanMap.entrySet().iterator().next().getValue());
 
+        if (hasAgg) {
+            TupleDesc td = node.getTupleDesc();
+            int[] afields = new int[aggFields.size()];
+            int[] gfields = new int[groupByFields.size()];
+            Aggregator.Op[] aops = new Aggregator.Op[aggOps.size()];
+            try {
+                for (int i = 0; i < afields.length; i++) {
+                    aops[i] = getAggOp(aggOps.get(i));
+                    if (aggFields.get(i).equals("null.*")) {
+                        if (aops[i] != Aggregator.Op.COUNT)
+                            throw new ParsingException(aggOps.get(i) + "(*) is not supported");
+                        afields[i] = 0;
+                    } else {
+                        afields[i] = td.fieldNameToIndex(aggFields.get(i));
+                    }
+                }
+                for (int i = 0; i < gfields.length; i++)
+                    gfields[i] = td.fieldNameToIndex(groupByFields.get(i));
+                boolean sketched = false;
+                for (Aggregator.Op op : aops)
+                    sketched |= Aggregate.isApproximate(op);
+                // StreamAggregate keeps no sketches
+                if (gfields.length == 1 && !sketched && isOrderedOn(node, gfields[0]))
+                    node = new StreamAggregate(node, afields, gfields, aops);
+                else
+                    node = new Aggregate(node, afields, gfields, aops);
+            } catch (NoSuchElementException e) {
+                throw new simpledb.ParsingException(e);
+            } catch (IllegalArgumentException e) {
+                throw new simpledb.ParsingException(e);
+            }
+        }
+
         //walk the select list, to determine order in which to project output fields
         ArrayList<Integer> outFields = new ArrayList<Integer>();
         ArrayList<Type> outTypes = new ArrayList<Type>();
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.elementAt(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
-                TupleDesc td = node.getTupleDesc();
-//                int  id;
-                try {
-//                    id = 
-                    td.fieldNameToIndex(si.fname);
-                } catch (NoSuchElementException e) {
-                    throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
+                // the aggregates follow the GROUP BY fields in the output
+                int id = -1;
+                for (int j = 0; j < aggOps.size() && id < 0; j++) {
+                    if (aggOps.get(j).equals(si.aggOp) && aggFields.get(j).equals(si.fname))
+                        id = groupByFields.size() + j;
                 }
-                outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
+                if (id < 0)
+                    throw new ParsingException("Unknown field " +  si.fname + " in SELECT list");
+                outFields.add(id);
+                outTypes.add(node.getTupleDesc().getFieldType(id));
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int id = groupByFields.indexOf(si.fname);
+                    if (id < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
-                    TupleDesc td = node.getTupleDesc();
-                    int  id;
-                    try {
-                        id = td.fieldNameToIndex(groupByField);
-                    } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
-                    }
-                    outTypes.add(td.getFieldType(id));
+                    outFields.add(id);
+                    outTypes.add(node.getTupleDesc().getFieldType(id));
             } else if (si.fname.equals("null.*")) {
                     TupleDesc td = node.getTupleDesc();
                     for ( i = 0; i < td.numFields(); i++) {
@@ -458,29 +638,51 @@ public class LogicalPlan {
                 }
         }
 
-        if (hasAgg) {
-            TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
-            try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
-            } catch (NoSuchElementException e) {
-                throw new simpledb.ParsingException(e);
-            } catch (IllegalArgumentException e) {
-                throw new simpledb.ParsingException(e);
+        if (distinct) {
+            int oByIndex = -1;
+            if (hasOrderBy) {
+                // the result is sorted after duplicates are dropped, so
+                // the ORDER BY field must be one of the selected ones
+                oByIndex = outFields.indexOf(node.getTupleDesc().fieldNameToIndex(oByField));
+                if (oByIndex < 0)
+                    throw new ParsingException("ORDER BY field " + oByField
+                                               + " must appear in the SELECT DISTINCT list");
             }
-            node = aggNode;
+            return distinctPlan(new Project(outFields, outTypes, node), oByIndex, oByAsc,
+                                limit, Distinct.DEFAULT_MEMORY_PAGES);
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int oByIndex = node.getTupleDesc().fieldNameToIndex(oByField);
+            if (limit >= 0)
+                node = new TopN(oByIndex, oByAsc, limit, node);
+            else
+                node = new OrderBy(oByIndex, oByAsc, node);
+        } else if (limit >= 0) {
+            node = new Limit(limit, node);
         }
 
         return new Project(outFields, outTypes, node);
     }
 
+    /**
+     * @return the plan for a SELECT DISTINCT whose selected fields are the
+     *         output of projected: duplicates are dropped first, since
+     *         tuples Distinct spills lose their order, and the result is
+     *         then sorted on field oByIndex (unless it is -1) and limited
+     *         to limit tuples (unless it is negative)
+     */
+    static DbIterator distinctPlan(DbIterator projected, int oByIndex, boolean asc,
+                                   int limit, int memoryPages) {
+        DbIterator node = new Distinct(projected, memoryPages);
+        if (oByIndex >= 0) {
+            if (limit >= 0)
+                return new TopN(oByIndex, asc, limit, node);
+            return new OrderBy(oByIndex, asc, node);
+        }
+        return limit >= 0 ? new Limit(limit, node) : node;
+    }
+
     public static void main(String argv[]) {
         // construct a 3-column table schema
         Type types[] = new Type[]{ Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
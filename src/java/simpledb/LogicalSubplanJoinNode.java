@@ -8,7 +8,15 @@ public class LogicalSubplanJoinNode extends LogicalJoinNode {
     
     /** The subplan (used on the inner) of the join */
     DbIterator subPlan;
-    
+
+    /** true if outer tuples are kept when they have no match (NOT IN) */
+    boolean anti;
+
+    public LogicalSubplanJoinNode(String table1, String joinField1, DbIterator sp, Predicate.Op pred, boolean anti) {
+        this(table1, joinField1, sp, pred);
+        this.anti = anti;
+    }
+
     public LogicalSubplanJoinNode(String table1, String joinField1, DbIterator sp, Predicate.Op pred) {
         t1Alias = table1;
         String[] tmps = joinField1.split("[.]");
@@ -34,7 +42,7 @@ public class LogicalSubplanJoinNode extends LogicalJoinNode {
     }
     
     public LogicalSubplanJoinNode swapInnerOuter() {
-        LogicalSubplanJoinNode j2 = new LogicalSubplanJoinNode(t1Alias,f1PureName,subPlan, p);
+        LogicalSubplanJoinNode j2 = new LogicalSubplanJoinNode(t1Alias,f1PureName,subPlan, p, anti);
         return j2;
     }
 
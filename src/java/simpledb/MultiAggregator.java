@@ -0,0 +1,266 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Computes several aggregates at once, grouped by any number of fields, in
+ * a single pass over its input.  A group's key is the list of its group-by
+ * field values; its state holds, for each aggregate, a running sum and count
+ * and the smallest and largest field seen, so every operator is updated
+ * from the same hash lookup.  The approximate operators add a
+ * {@link HyperLogLog} or {@link KllSketch} to the state of their aggregate,
+ * so they too use constant memory per group and merge like the others.
+ * <p>
+ * Output tuples hold the group-by fields, in the order given, followed by
+ * one field per aggregate, typed as {@link Aggregate#resultType} says.  SUM
+ * and AVG need a numeric field, and accumulate in a long, or a double for
+ * DOUBLE fields; so do the approximate percentiles.  COUNT, MIN, MAX and
+ * APPROX_COUNT_DISTINCT accept any type.  Without group-by fields
+ * the output is a single tuple, or none if there was no input, as with the
+ * single-aggregate Aggregators.
+ */
+public class MultiAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+    int[] gbfields;
+    Type[] gbtypes;
+    int[] afields;
+    Type[] atypes;
+    Op[] ops;
+    TupleDesc td;
+    LinkedHashMap<List<Field>, GroupState> groups;
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfields
+     *            the 0-based indexes of the group-by fields in the tuple;
+     *            empty if there is no grouping
+     * @param gbtypes
+     *            the types of the group-by fields
+     * @param afields
+     *            the 0-based indexes of the aggregate fields in the tuple
+     * @param atypes
+     *            the types of the aggregate fields
+     * @param ops
+     *            the aggregation operator for each aggregate field
+     * @throws IllegalArgumentException if an operator is not supported on
+     *            its field's type
+     */
+    public MultiAggregator(int[] gbfields, Type[] gbtypes, int[] afields, Type[] atypes, Op[] ops) {
+        if (afields.length != ops.length || afields.length != atypes.length
+                || gbfields.length != gbtypes.length)
+            throw new IllegalArgumentException("mismatched aggregate arguments");
+        for (int i = 0; i < ops.length; i++) {
+            switch (ops[i]) {
+            case COUNT:
+            case MIN:
+            case MAX:
+            case APPROX_COUNT_DISTINCT:
+                break;
+            case SUM:
+            case AVG:
+            case APPROX_MEDIAN:
+            case APPROX_P90:
+            case APPROX_P99:
+                if (atypes[i] == Type.STRING_TYPE)
+                    throw new IllegalArgumentException(ops[i] + " is not supported on " + atypes[i]);
+                break;
+            default:
+                throw new IllegalArgumentException(ops[i] + " is not supported on " + atypes[i]);
+            }
+        }
+        this.gbfields = gbfields;
+        this.gbtypes = gbtypes;
+        this.afields = afields;
+        this.atypes = atypes;
+        this.ops = ops;
+        Type[] types = new Type[gbfields.length + afields.length];
+        String[] names = new String[types.length];
+        for (int i = 0; i < gbfields.length; i++) {
+            types[i] = gbtypes[i];
+            names[i] = "Group By Field";
+        }
+        for (int i = 0; i < afields.length; i++) {
+            types[gbfields.length + i] = Aggregate.resultType(ops[i], atypes[i]);
+            names[gbfields.length + i] = "Aggregate";
+        }
+        this.td = new TupleDesc(types, names);
+        this.groups = new LinkedHashMap<List<Field>, GroupState>();
+    }
+
+    /** Running values of every aggregate for one group. */
+    private static class GroupState {
+        final long[] sum;
+        final double[] dsum;
+        final long[] count;
+        final Field[] min;
+        final Field[] max;
+        // null unless the aggregate is approximate
+        final HyperLogLog[] distinct;
+        final KllSketch[] quantiles;
+
+        GroupState(Op[] ops) {
+            int n = ops.length;
+            sum = new long[n];
+            dsum = new double[n];
+            count = new long[n];
+            min = new Field[n];
+            max = new Field[n];
+            distinct = new HyperLogLog[n];
+            quantiles = new KllSketch[n];
+            for (int i = 0; i < n; i++) {
+                if (ops[i] == Op.APPROX_COUNT_DISTINCT)
+                    distinct[i] = new HyperLogLog();
+                else if (quantile(ops[i]) >= 0)
+                    quantiles[i] = new KllSketch();
+            }
+        }
+    }
+
+    /** @return the quantile op estimates, or -1 if it is not a percentile */
+    static double quantile(Op op) {
+        switch (op) {
+        case APPROX_MEDIAN: return 0.5;
+        case APPROX_P90: return 0.9;
+        case APPROX_P99: return 0.99;
+        default: return -1;
+        }
+    }
+
+    /**
+     * Merge a new tuple into the aggregates, grouping as indicated in the
+     * constructor. See Aggregator.java for more.
+     *
+     * @param tup
+     *            the Tuple containing the aggregate and group-by fields
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        List<Field> key = key(tup);
+        GroupState g = groups.get(key);
+        if (g == null) {
+            g = new GroupState(ops);
+            groups.put(key, g);
+        }
+        for (int i = 0; i < afields.length; i++) {
+            Field f = tup.getField(afields[i]);
+            g.count[i]++;
+            if (f instanceof IntField)
+                g.sum[i] += ((IntField) f).getValue();
+            else if (f instanceof LongField)
+                g.sum[i] += ((LongField) f).getValue();
+            else if (f instanceof DoubleField)
+                g.dsum[i] += ((DoubleField) f).getValue();
+            if (g.distinct[i] != null)
+                g.distinct[i].add(f);
+            if (g.quantiles[i] != null)
+                g.quantiles[i].add(numericValue(f));
+            if (g.min[i] == null || f.compare(Predicate.Op.LESS_THAN, g.min[i]))
+                g.min[i] = f;
+            if (g.max[i] == null || f.compare(Predicate.Op.GREATER_THAN, g.max[i]))
+                g.max[i] = f;
+        }
+    }
+
+    private static double numericValue(Field f) {
+        if (f instanceof IntField)
+            return ((IntField) f).getValue();
+        if (f instanceof LongField)
+            return ((LongField) f).getValue();
+        return ((DoubleField) f).getValue();
+    }
+
+    /** @return the group-by values of tup */
+    private List<Field> key(Tuple tup) {
+        if (gbfields.length == 1)
+            return Collections.singletonList(tup.getField(gbfields[0]));
+        Field[] values = new Field[gbfields.length];
+        for (int i = 0; i < gbfields.length; i++)
+            values[i] = tup.getField(gbfields[i]);
+        return Arrays.asList(values);
+    }
+
+    /**
+     * Fold the groups of other, which must compute the same aggregates over
+     * the same grouping, into this aggregator, as though this one had also
+     * merged every tuple other has.  Used to combine partial aggregates
+     * computed over disjoint parts of the input.
+     */
+    public void merge(MultiAggregator other) {
+        for (Map.Entry<List<Field>, GroupState> e : other.groups.entrySet()) {
+            GroupState theirs = e.getValue();
+            GroupState g = groups.get(e.getKey());
+            if (g == null) {
+                groups.put(e.getKey(), theirs);
+                continue;
+            }
+            for (int i = 0; i < afields.length; i++) {
+                g.count[i] += theirs.count[i];
+                g.sum[i] += theirs.sum[i];
+                g.dsum[i] += theirs.dsum[i];
+                if (theirs.min[i].compare(Predicate.Op.LESS_THAN, g.min[i]))
+                    g.min[i] = theirs.min[i];
+                if (theirs.max[i].compare(Predicate.Op.GREATER_THAN, g.max[i]))
+                    g.max[i] = theirs.max[i];
+                if (g.distinct[i] != null)
+                    g.distinct[i].merge(theirs.distinct[i]);
+                if (g.quantiles[i] != null)
+                    g.quantiles[i].merge(theirs.quantiles[i]);
+            }
+        }
+    }
+
+    public int numGroups() {
+        return groups.size();
+    }
+
+    public boolean hasGroup(Tuple tup) {
+        return groups.containsKey(key(tup));
+    }
+
+    /** @return the schema of the output tuples */
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the value of aggregate i for group g */
+    private Field result(GroupState g, int i) {
+        switch (ops[i]) {
+        case MIN: return g.min[i];
+        case MAX: return g.max[i];
+        case COUNT: return new IntField((int) g.count[i]);
+        case APPROX_COUNT_DISTINCT: return new IntField((int) g.distinct[i].estimate());
+        case APPROX_MEDIAN:
+        case APPROX_P90:
+        case APPROX_P99:
+            double q = g.quantiles[i].quantile(quantile(ops[i]));
+            if (atypes[i] == Type.INT_TYPE)
+                return new IntField((int) q);
+            if (atypes[i] == Type.LONG_TYPE)
+                return new LongField((long) q);
+            return new DoubleField(q);
+        default: return Aggregate.sumOrAvg(ops[i], atypes[i], g.sum[i], g.dsum[i], g.count[i]);
+        }
+    }
+
+    /**
+     * Returns a DbIterator over group aggregate results.
+     *
+     * @return a DbIterator whose tuples are the group-by values followed by
+     *         the aggregate values, one tuple per group
+     */
+    public DbIterator iterator() {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>(groups.size());
+        for (Map.Entry<List<Field>, GroupState> e : groups.entrySet()) {
+            Tuple t = new Tuple(td);
+            List<Field> key = e.getKey();
+            for (int i = 0; i < gbfields.length; i++)
+                t.setField(i, key.get(i));
+            for (int i = 0; i < afields.length; i++)
+                t.setField(gbfields.length + i, result(e.getValue(), i));
+            tuples.add(t);
+        }
+        return new TupleIterator(td, tuples);
+    }
+
+}
@@ -6,8 +6,11 @@ import java.util.NoSuchElementException;
  * Abstract class for implementing operators. It handles <code>close</code>,
  * <code>next</code> and <code>hasNext</code>. Subclasses only need to implement
  * <code>open</code> and <code>readNext</code>.
+ * <p>
+ * Batches are collected from <code>fetchNext</code> unless a subclass
+ * overrides <code>nextBatch</code> to produce them directly.
  */
-public abstract class Operator implements DbIterator {
+public abstract class Operator implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private Tuple next = null;
@@ -36,6 +39,15 @@ public abstract class Operator implements DbIterator {
         return result;
     }
 
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (!this.open)
+            throw new IllegalStateException("Operator not yet open");
+        TupleBatch batch = new TupleBatch(getTupleDesc());
+        while (!batch.isFull() && hasNext())
+            batch.add(next());
+        return batch.size() == 0 ? null : batch;
+    }
+
     /**
      * Returns the next Tuple in the iterator, or null if the iteration is
      * finished. Operator uses this method to implement both <code>next</code>
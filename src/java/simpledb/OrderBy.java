@@ -1,23 +1,46 @@
 package simpledb;
 
+import java.io.IOException;
 import java.util.*;
 
 /**
  * OrderBy is an operator that implements a relational ORDER BY.
+ * <p>
+ * The sort is external: open() reads the child into a buffer of at most
+ * the memory budget, sorts it, and, if the child has more tuples, writes it
+ * out as a sorted run in a {@link SpillFile} and starts the next buffer.
+ * The runs are then merged with a priority queue holding the head tuple of
+ * each run; when there are more than {@link #MAX_FAN_IN} runs, groups of
+ * them are first merged into longer runs.  The final merge is streamed by
+ * fetchNext.  An input that fits in the budget is sorted in memory and
+ * never touches disk.  Tuples with equal sort keys keep their input order.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** Default memory budget for the sort buffer, in pages. */
+    public static final int DEFAULT_MEMORY_PAGES = 1000;
+    /** Largest number of runs merged at once. */
+    static final int MAX_FAN_IN = 64;
+
     private DbIterator child;
     private TupleDesc td;
-    private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
+    private ArrayList<Tuple> childTups;
     private int orderByField;
     private String orderByFieldName;
     private Iterator<Tuple> it;
     private boolean asc;
+    private final int memoryPages;
+
+    // sorted runs on disk, or null if the input was sorted in memory
+    private ArrayList<SpillFile> runs;
+    private int runsWritten;
+    private PriorityQueue<RunHead> merge;
 
     /**
-     * Creates a new OrderBy node over the tuples from the iterator.
+     * Creates a new OrderBy node over the tuples from the iterator, using
+     * the default memory budget.
      * 
      * @param orderbyField
      *            the field to which the sort is applied.
@@ -27,11 +50,29 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, DbIterator child) {
+        this(orderbyField, asc, child, DEFAULT_MEMORY_PAGES);
+    }
+
+    /**
+     * Creates a new OrderBy node over the tuples from the iterator.
+     * 
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param memoryPages
+     *            the number of pages' worth of tuples to sort in memory
+     *            before writing a run to disk
+     */
+    public OrderBy(int orderbyField, boolean asc, DbIterator child, int memoryPages) {
         this.child = child;
         td = child.getTupleDesc();
         this.orderByField = orderbyField;
         this.orderByFieldName = td.getFieldName(orderbyField);
         this.asc = asc;
+        this.memoryPages = memoryPages;
     }
     
     public boolean isASC()
@@ -53,24 +94,158 @@ public class OrderBy extends Operator {
         return td;
     }
 
+    /**
+     * @return the number of sorted runs written to disk by the last open(),
+     *         including those written by intermediate merges
+     */
+    public int getRunsWritten() {
+        return runsWritten;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add((Tuple) child.next());
-        Collections.sort(childTups, new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        int perPage = Math.max(1, BufferPool.getPageSize() / td.getSize());
+        int maxTuples = (int) Math.min(Integer.MAX_VALUE, (long) memoryPages * perPage);
+        TupleComparator cmp = new TupleComparator(orderByField, asc);
+
+        childTups = new ArrayList<Tuple>();
+        runs = null;
+        runsWritten = 0;
+        while (child.hasNext()) {
+            childTups.add(child.next());
+            if (childTups.size() >= maxTuples && child.hasNext()) {
+                if (runs == null)
+                    runs = new ArrayList<SpillFile>();
+                Collections.sort(childTups, cmp);
+                runs.add(writeRun(childTups.iterator()));
+                childTups = new ArrayList<Tuple>();
+            }
+        }
+        child.close();
+        Collections.sort(childTups, cmp);
+        if (runs == null) {
+            it = childTups.iterator();
+        } else {
+            if (!childTups.isEmpty())
+                runs.add(writeRun(childTups.iterator()));
+            childTups = null;
+            while (runs.size() > MAX_FAN_IN)
+                mergePass();
+            Debug.log("OrderBy: %d runs written", runsWritten);
+            startMerge();
+        }
         super.open();
     }
 
+    private SpillFile writeRun(Iterator<Tuple> tuples) throws DbException {
+        try {
+            SpillFile run = new SpillFile(td);
+            while (tuples.hasNext())
+                run.add(tuples.next());
+            runsWritten++;
+            return run;
+        } catch (IOException e) {
+            throw new DbException("OrderBy spill failed: " + e.getMessage());
+        }
+    }
+
+    /** Merge the runs in groups of MAX_FAN_IN into longer runs. */
+    private void mergePass() throws DbException, TransactionAbortedException {
+        ArrayList<SpillFile> merged = new ArrayList<SpillFile>();
+        for (int i = 0; i < runs.size(); i += MAX_FAN_IN) {
+            List<SpillFile> group = runs.subList(i, Math.min(runs.size(), i + MAX_FAN_IN));
+            PriorityQueue<RunHead> heads = openRuns(group);
+            SpillFile out;
+            try {
+                out = new SpillFile(td);
+                Tuple t;
+                while ((t = nextMerged(heads)) != null)
+                    out.add(t);
+            } catch (IOException e) {
+                throw new DbException("OrderBy spill failed: " + e.getMessage());
+            }
+            runsWritten++;
+            for (SpillFile f : group)
+                f.delete();
+            merged.add(out);
+        }
+        runs = merged;
+    }
+
+    private void startMerge() throws DbException, TransactionAbortedException {
+        closeMerge();
+        merge = openRuns(runs);
+    }
+
+    private PriorityQueue<RunHead> openRuns(List<SpillFile> group)
+        throws DbException, TransactionAbortedException {
+        final TupleComparator cmp = new TupleComparator(orderByField, asc);
+        PriorityQueue<RunHead> heads = new PriorityQueue<RunHead>(Math.max(1, group.size()),
+            new Comparator<RunHead>() {
+                public int compare(RunHead a, RunHead b) {
+                    int c = cmp.compare(a.head, b.head);
+                    // earlier runs hold earlier input tuples
+                    return c != 0 ? c : a.index - b.index;
+                }
+            });
+        for (int i = 0; i < group.size(); i++) {
+            DbIterator reader;
+            try {
+                reader = group.get(i).iterator();
+            } catch (IOException e) {
+                throw new DbException("OrderBy spill failed: " + e.getMessage());
+            }
+            reader.open();
+            if (reader.hasNext())
+                heads.add(new RunHead(reader, reader.next(), i));
+            else
+                reader.close();
+        }
+        return heads;
+    }
+
+    /** Remove and return the smallest head tuple, or null if heads is empty. */
+    private static Tuple nextMerged(PriorityQueue<RunHead> heads)
+        throws DbException, TransactionAbortedException {
+        RunHead top = heads.poll();
+        if (top == null)
+            return null;
+        Tuple t = top.head;
+        if (top.reader.hasNext()) {
+            top.head = top.reader.next();
+            heads.add(top);
+        } else {
+            top.reader.close();
+        }
+        return t;
+    }
+
+    private void closeMerge() {
+        if (merge != null) {
+            for (RunHead h : merge)
+                h.reader.close();
+            merge = null;
+        }
+    }
+
     public void close() {
         super.close();
         it = null;
+        childTups = null;
+        closeMerge();
+        if (runs != null) {
+            for (SpillFile f : runs)
+                f.delete();
+            runs = null;
+        }
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        it = childTups.iterator();
+        if (runs == null)
+            it = childTups.iterator();
+        else
+            startMerge();
     }
 
     /**
@@ -82,6 +257,8 @@ public class OrderBy extends Operator {
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
+        if (merge != null)
+            return nextMerged(merge);
         if (it != null && it.hasNext()) {
             return it.next();
         } else
@@ -98,26 +275,17 @@ public class OrderBy extends Operator {
         this.child = children[0];
     }
 
-}
-
-class TupleComparator implements Comparator<Tuple> {
-    int field;
-    boolean asc;
+    /** The next unmerged tuple of one sorted run. */
+    private static class RunHead {
+        final DbIterator reader;
+        Tuple head;
+        final int index;
 
-    public TupleComparator(int field, boolean asc) {
-        this.field = field;
-        this.asc = asc;
+        RunHead(DbIterator reader, Tuple head, int index) {
+            this.reader = reader;
+            this.head = head;
+            this.index = index;
+        }
     }
 
-    public int compare(Tuple o1, Tuple o2) {
-        Field t1 = (o1).getField(field);
-        Field t2 = (o2).getField(field);
-        if (t1.compare(Predicate.Op.EQUALS, t2))
-            return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
-    }
-    
 }
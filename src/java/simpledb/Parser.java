@@ -4,6 +4,8 @@ import Zql.*;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -12,6 +14,15 @@ import jline.SimpleCompletor;
 public class Parser {
     static boolean explain = false;
 
+    // the approximate aggregates are not built into Zql; functions it is
+    // told about are parsed as aggregates of one column
+    static {
+        ZUtils.addCustomFunction("approx_count_distinct", 1);
+        ZUtils.addCustomFunction("approx_median", 1);
+        ZUtils.addCustomFunction("approx_p90", 1);
+        ZUtils.addCustomFunction("approx_p99", 1);
+    }
+
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
             return Predicate.Op.EQUALS;
@@ -60,7 +71,16 @@ public class Parser {
             }
 
             boolean isJoin = false;
-            Predicate.Op op = getOp(wx.getOperator());
+            // x IN (subquery) keeps the rows with an equal value in the
+            // subquery, and x NOT IN (subquery) those without one
+            boolean in = wx.getOperator().equals("IN");
+            boolean notIn = wx.getOperator().equals("NOT IN");
+            Predicate.Op op = (in || notIn) ? Predicate.Op.EQUALS
+                    : getOp(wx.getOperator());
+            if ((in || notIn) && !(ops.elementAt(1) instanceof ZQuery)) {
+                throw new simpledb.ParsingException(
+                        "IN and NOT IN are only supported with a subquery.");
+            }
 
             boolean op1const = ops.elementAt(0) instanceof ZConstant; // otherwise
                                                                       // is a
@@ -99,7 +119,7 @@ public class Parser {
                                 (ZQuery) ops.elementAt(1));
                         DbIterator pp = sublp.physicalPlan(tid,
                                 TableStats.getStatsMap(), explain);
-                        lp.addJoin(tab1field, pp, op);
+                        lp.addJoin(tab1field, pp, op, notIn);
                     } catch (IOException e) {
                         throw new simpledb.ParsingException("Invalid subquery "
                                 + ops.elementAt(1));
@@ -138,6 +158,9 @@ public class Parser {
         Vector<ZFromItem> from = q.getFrom();
         LogicalPlan lp = new LogicalPlan();
         lp.setQuery(q.toString());
+        // users at the prompt see (and often cancel after) the first rows,
+        // so favor joins that produce them early
+        lp.setPipelined(interactive);
         // walk through tables in the FROM clause
         for (int i = 0; i < from.size(); i++) {
             ZFromItem fromIt = from.elementAt(i);
@@ -182,23 +205,20 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        Vector<String> groupByFields = new Vector<String>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             Vector<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.elementAt(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
                 System.out.println("GROUP BY FIELD : " + groupByField);
+                groupByFields.add(groupByField);
+                lp.addGroupBy(groupByField);
             }
 
         }
@@ -207,8 +227,7 @@ public class Parser {
         // validity
         @SuppressWarnings("unchecked")
         Vector<ZSelectItem> selectList = q.getSelect();
-        String aggField = null;
-        String aggFun = null;
+        boolean hasAgg = false;
 
         for (int i = 0; i < selectList.size(); i++) {
             ZSelectItem si = selectList.elementAt(i);
@@ -218,20 +237,18 @@ public class Parser {
                         "Expressions in SELECT list are not supported.");
             }
             if (si.getAggregate() != null) {
-                if (aggField != null) {
-                    throw new simpledb.ParsingException(
-                            "Aggregates over multiple fields not supported.");
-                }
-                aggField = ((ZConstant) ((ZExpression) si.getExpression())
+                String aggField = ((ZConstant) ((ZExpression) si.getExpression())
                         .getOperand(0)).getValue();
-                aggFun = si.getAggregate();
+                String aggFun = si.getAggregate();
                 System.out.println("Aggregate field is " + aggField
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
+                lp.addAggregate(aggFun, aggField, null);
+                hasAgg = true;
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                                + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                                + si.getColumn()) || groupByFields.contains(si
                                 .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -241,13 +258,13 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && !hasAgg) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
-        if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
-        }
+        if (q.isDistinct())
+            lp.setDistinct();
+
         // sort the data
 
         if (q.getOrderBy() != null) {
@@ -273,12 +290,49 @@ public class Parser {
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
 
+    /** A trailing LIMIT clause, which Zql does not understand. */
+    static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "(?is)^(.*\\S)\\s+LIMIT\\s+(\\d+)\\s*(;?)\\s*$");
+
+    // the LIMIT of the statement being processed, or -1 if it has none
+    private int limit = -1;
+
+    /** A statement that is a query, as opposed to an INSERT or DELETE. */
+    static final Pattern SELECT_STATEMENT = Pattern.compile("(?is)^\\s*SELECT\\b.*");
+
+    /**
+     * Remove a trailing LIMIT clause from the statement s, remembering its
+     * count for {@link #handleQueryStatement}.
+     *
+     * @return s without its LIMIT clause
+     * @throws simpledb.ParsingException if the count is too large, or the
+     *         statement is not a SELECT
+     */
+    String stripLimit(String s) throws simpledb.ParsingException {
+        limit = -1;
+        Matcher m = LIMIT_CLAUSE.matcher(s);
+        if (!m.matches())
+            return s;
+        // only queries honor the limit; an INSERT or DELETE would silently
+        // act on every row
+        if (!SELECT_STATEMENT.matcher(s).matches())
+            throw new simpledb.ParsingException("LIMIT is only supported on SELECT statements");
+        try {
+            limit = Integer.parseInt(m.group(2));
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("Invalid LIMIT " + m.group(2));
+        }
+        return m.group(1) + m.group(3);
+    }
+
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws TransactionAbortedException, DbException, IOException,
             simpledb.ParsingException, Zql.ParseException {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        if (limit >= 0)
+            lp.addLimit(limit);
         DbIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -357,25 +411,36 @@ public class Parser {
                             "Complex expressions not allowed in INSERT statements.");
                 ZConstant zc = (ZConstant) e;
                 if (zc.getType() == ZConstant.NUMBER) {
-                    if (td.getFieldType(i) != Type.INT_TYPE) {
+                    Field f;
+                    try {
+                        if (td.getFieldType(i) == Type.INT_TYPE)
+                            f = new IntField(Integer.parseInt(zc.getValue()));
+                        else if (td.getFieldType(i) == Type.LONG_TYPE)
+                            f = new LongField(Long.parseLong(zc.getValue()));
+                        else if (td.getFieldType(i) == Type.DOUBLE_TYPE)
+                            f = new DoubleField(Double.parseDouble(zc.getValue()));
+                        else
+                            throw new simpledb.ParsingException("Value "
+                                    + zc.getValue()
+                                    + " is a number, expected a string.");
+                    } catch (NumberFormatException nfe) {
                         throw new simpledb.ParsingException("Value "
-                                + zc.getValue()
-                                + " is not an integer, expected a string.");
+                                + zc.getValue() + " does not fit a "
+                                + td.getFieldType(i) + " field.");
                     }
-                    IntField f = new IntField(new Integer(zc.getValue()));
                     t.setField(i, f);
                 } else if (zc.getType() == ZConstant.STRING) {
                     if (td.getFieldType(i) != Type.STRING_TYPE) {
                         throw new simpledb.ParsingException("Value "
                                 + zc.getValue()
-                                + " is a string, expected an integer.");
+                                + " is a string, expected a number.");
                     }
                     StringField f = new StringField(zc.getValue(),
                             Type.STRING_LEN);
                     t.setField(i, f);
                 } else {
                     throw new simpledb.ParsingException(
-                            "Only string or int fields are supported.");
+                            "Only string or numeric fields are supported.");
                 }
 
                 i++;
@@ -465,12 +530,14 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        ByteArrayInputStream bis = new ByteArrayInputStream(stripLimit(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
                 LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                if (limit >= 0)
+                    lp.addLimit(limit);
                 return lp;
             }
         } catch (Zql.ParseException e) {
@@ -503,7 +570,14 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            // read the statement up front so a LIMIT clause can be taken off
+            ByteArrayOutputStream statement = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = is.read(buf)) > 0)
+                statement.write(buf, 0, n);
+            String sql = stripLimit(statement.toString("UTF-8"));
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(sql.getBytes("UTF-8")));
             ZStatement s = p.readStatement();
 
             Query query = null;
@@ -511,7 +585,9 @@ public class Parser {
                 handleTransactStatement((ZTransactStmt) s);
             else {
                 if (!this.inUserTrans) {
-                    curtrans = new Transaction();
+                    // a standalone SELECT only reads, so run it against a
+                    // snapshot without touching the log
+                    curtrans = new Transaction(s instanceof ZQuery);
                     curtrans.start();
                     System.out.println("Started a new transaction tid = "
                             + curtrans.getId().getId());
@@ -580,7 +656,7 @@ public class Parser {
 
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
-            "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
+            "group by", "distinct", "max(", "min(", "avg(", "count", "rollback", "commit",
             "insert", "delete", "values", "into" };
 
     public static void main(String argv[]) throws IOException {
@@ -102,6 +102,81 @@ public class Predicate implements Serializable {
         return f.compare(operator,operand);
     }
 
+    /**
+     * Applies the predicate to every selected row of batch, writing the
+     * physical rows that pass to sel in order.  An INT field compared with
+     * an IntField operand is tested straight on the batch's int column.
+     *
+     * @param batch
+     *            The tuples to compare against
+     * @param sel
+     *            Receives the rows that pass; must have room for
+     *            batch.size() rows
+     * @return the number of rows written to sel
+     */
+    public int filter(TupleBatch batch, int[] sel) {
+        int n = batch.size();
+        int k = 0;
+        if (batch.getTupleDesc().getFieldType(field) != Type.INT_TYPE
+                || !(operand instanceof IntField)) {
+            for (int i = 0; i < n; i++) {
+                int r = batch.row(i);
+                if (batch.getField(field, r).compare(operator, operand))
+                    sel[k++] = r;
+            }
+            return k;
+        }
+        int[] col = batch.intColumn(field);
+        int v = ((IntField) operand).getValue();
+        // one loop per operator keeps the comparison out of the row loop
+        switch (operator) {
+        case EQUALS:
+        case LIKE:
+            for (int i = 0; i < n; i++) {
+                int r = batch.row(i);
+                if (col[r] == v)
+                    sel[k++] = r;
+            }
+            break;
+        case NOT_EQUALS:
+            for (int i = 0; i < n; i++) {
+                int r = batch.row(i);
+                if (col[r] != v)
+                    sel[k++] = r;
+            }
+            break;
+        case GREATER_THAN:
+            for (int i = 0; i < n; i++) {
+                int r = batch.row(i);
+                if (col[r] > v)
+                    sel[k++] = r;
+            }
+            break;
+        case GREATER_THAN_OR_EQ:
+            for (int i = 0; i < n; i++) {
+                int r = batch.row(i);
+                if (col[r] >= v)
+                    sel[k++] = r;
+            }
+            break;
+        case LESS_THAN:
+            for (int i = 0; i < n; i++) {
+                int r = batch.row(i);
+                if (col[r] < v)
+                    sel[k++] = r;
+            }
+            break;
+        case LESS_THAN_OR_EQ:
+            for (int i = 0; i < n; i++) {
+                int r = batch.row(i);
+                if (col[r] <= v)
+                    sel[k++] = r;
+            }
+            break;
+        }
+        return k;
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string
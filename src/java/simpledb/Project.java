@@ -60,6 +60,20 @@ public class Project extends Operator {
         child.rewind();
     }
 
+    /**
+     * Projects a batch at a time; the output batch shares the kept columns
+     * with the child's batch.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        TupleBatch batch = TupleBatch.nextBatch(child);
+        if (batch == null)
+            return null;
+        int[] cols = new int[outFieldIds.size()];
+        for (int i = 0; i < cols.length; i++)
+            cols[i] = outFieldIds.get(i);
+        return batch.project(cols, td);
+    }
+
     /**
      * Operator.fetchNext implementation. Iterates over tuples from the child
      * operator, projecting out the fields from the tuple
@@ -0,0 +1,494 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * SegmentedLogFile is the storage underneath {@link LogFile}.  The log is a
+ * single logical byte stream addressed by long offsets, but it is stored as
+ * a sequence of fixed-size segment files named <tt>base.0</tt>,
+ * <tt>base.1</tt>, ..., where segment n holds the offsets
+ * [n * SEGMENT_SIZE, (n + 1) * SEGMENT_SIZE).  Records may span a segment
+ * boundary.
+ * <p>
+ * Because offsets never move, truncating the log below some offset is just
+ * deleting the segments that lie wholly before it; nothing is rewritten and
+ * offsets already handed out (e.g., in checkpoint records) stay valid.
+ * <p>
+ * Segments are preallocated (filled with zeroes, synced, and their
+ * directory entry synced) by a background thread, which starts on the next
+ * segment as soon as writing moves into a new one.  Appending a commit
+ * record therefore never extends or creates a file, and {@link #force}
+ * only needs to sync data, not file metadata.  A reader that runs into the
+ * zeroed tail of the last segment sees a record type of 0, which no log
+ * record uses.
+ * <p>
+ * The base file itself holds a small header: the offset of the last
+ * checkpoint, the number of the first live segment and the logical end of
+ * the log as of the last checkpoint or close.  Records forced after that
+ * are found again on open by reading forward from the header's end until
+ * the zeroed tail, or a record that is not whole.
+ */
+class SegmentedLogFile {
+
+    /** Bytes per segment file. */
+    static final int SEGMENT_SIZE = 1 << 20;
+
+    private static final int ZERO_CHUNK = 64 * 1024;
+    private static final int HEADER_SIZE = 3 * LogFile.LONG_SIZE;
+
+    private final File base;
+    private final RandomAccessFile header;
+    private final TreeMap<Long, RandomAccessFile> segments = new TreeMap<Long, RandomAccessFile>();
+    private final HashSet<Long> dirty = new HashSet<Long>();
+
+    // the thread preallocating segment preallocSeg, if any
+    private Thread preallocator;
+    private long preallocSeg;
+
+    private long checkpoint;
+    private long firstSegment;
+    private long position;
+    private long end;
+
+    /**
+     * Open (or create) the segmented log whose header lives in f.
+     *
+     * @param f the header file; segments are stored next to it
+     */
+    public SegmentedLogFile(File f) throws IOException {
+        base = f;
+        header = new RandomAccessFile(f, "rw");
+        if (header.length() >= HEADER_SIZE) {
+            header.seek(0);
+            checkpoint = header.readLong();
+            firstSegment = header.readLong();
+            end = header.readLong();
+        } else {
+            // the header is written on first use, so merely opening a
+            // log doesn't touch it
+            checkpoint = LogFile.NO_CHECKPOINT_ID;
+            firstSegment = 0;
+            end = 0;
+        }
+
+        File dir = f.getAbsoluteFile().getParentFile();
+        String prefix = f.getName() + ".";
+        String[] names = dir.list();
+        if (names != null) {
+            for (String name : names) {
+                if (!name.startsWith(prefix))
+                    continue;
+                long seg;
+                try {
+                    seg = Long.parseLong(name.substring(prefix.length()));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                if (seg < firstSegment) {
+                    new File(dir, name).delete();
+                } else {
+                    // finish a preallocation a crash cut short
+                    zeroFill(new File(dir, name));
+                    segments.put(seg, new RandomAccessFile(new File(dir, name), "rw"));
+                }
+            }
+        }
+        position = end;
+        recoverEnd();
+    }
+
+    /**
+     * Move end past every whole record that follows it, as forced before a
+     * crash that left the header's end behind.
+     */
+    private void recoverEnd() {
+        long recovered = end;
+        // let reads run to the last segment; they fail past it
+        end = Long.MAX_VALUE;
+        try {
+            long next;
+            while ((next = skipRecord(recovered)) >= 0)
+                recovered = next;
+        } catch (IOException e) {
+            // a torn or missing record ends the log
+        }
+        end = recovered;
+        position = end;
+    }
+
+    /**
+     * @return the offset just past the log record starting at pos, or -1
+     *         if there is no whole record there
+     */
+    private long skipRecord(long pos) throws IOException {
+        seek(pos);
+        int type = readInt();
+        switch (type) {
+        case LogFile.ABORT_RECORD:
+        case LogFile.COMMIT_RECORD:
+        case LogFile.BEGIN_RECORD:
+            readLong();
+            break;
+        case LogFile.CHECKPOINT_RECORD:
+            readLong();
+            int n = readInt();
+            if (n < 0)
+                return -1;
+            seek(position + 2L * n * LogFile.LONG_SIZE);
+            break;
+        case LogFile.UPDATE_RECORD:
+            readLong();
+            if (!skipPageData() || !skipPageData())
+                return -1;
+            break;
+        default:
+            // the zeroed tail, or garbage
+            return -1;
+        }
+        // every record ends with its own start offset
+        if (readLong() != pos)
+            return -1;
+        return position;
+    }
+
+    /** Skip the page written by LogFile.writePageData. */
+    private boolean skipPageData() throws IOException {
+        readUTF();
+        readUTF();
+        int n = readInt();
+        if (n < 0)
+            return false;
+        seek(position + (long) n * LogFile.INT_SIZE);
+        int len = readInt();
+        if (len < 0)
+            return false;
+        seek(position + len);
+        return true;
+    }
+
+    /** @return the offset of the last checkpoint record, or -1 */
+    public long getCheckpoint() {
+        return checkpoint;
+    }
+
+    /**
+     * Record the offset of the last checkpoint record, together with the
+     * current end of the log, and force the header to disk.
+     */
+    public void setCheckpoint(long offset) throws IOException {
+        checkpoint = offset;
+        writeHeader();
+        header.getChannel().force(true);
+    }
+
+    /** @return the first offset still stored in the log */
+    public long getStartOffset() {
+        return firstSegment * SEGMENT_SIZE;
+    }
+
+    public long getFilePointer() {
+        return position;
+    }
+
+    public void seek(long pos) {
+        position = pos;
+    }
+
+    /** @return the logical length of the log */
+    public long length() {
+        return end;
+    }
+
+    /**
+     * Throw away the whole log and start over at offset 0 with no
+     * checkpoint.
+     */
+    public void reset() throws IOException {
+        awaitPreallocation();
+        for (Map.Entry<Long, RandomAccessFile> e : segments.entrySet()) {
+            e.getValue().close();
+            segmentFile(e.getKey()).delete();
+        }
+        segments.clear();
+        dirty.clear();
+        firstSegment = 0;
+        position = 0;
+        end = 0;
+        setCheckpoint(LogFile.NO_CHECKPOINT_ID);
+    }
+
+    /**
+     * Delete every segment that lies entirely before offset.  The segment
+     * containing offset (and everything after it) is kept.
+     *
+     * @return the number of segments deleted
+     */
+    public int truncateBefore(long offset) throws IOException {
+        long keep = Math.min(offset, end) / SEGMENT_SIZE;
+        if (keep <= firstSegment)
+            return 0;
+        // make the new start durable before any segment disappears
+        firstSegment = keep;
+        writeHeader();
+        header.getChannel().force(true);
+
+        int removed = 0;
+        Iterator<Map.Entry<Long, RandomAccessFile>> it = segments.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Long, RandomAccessFile> e = it.next();
+            if (e.getKey() >= keep)
+                break;
+            e.getValue().close();
+            segmentFile(e.getKey()).delete();
+            dirty.remove(e.getKey());
+            it.remove();
+            removed++;
+        }
+        return removed;
+    }
+
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            long seg = position / SEGMENT_SIZE;
+            int segOff = (int) (position % SEGMENT_SIZE);
+            int n = Math.min(len, SEGMENT_SIZE - segOff);
+            RandomAccessFile raf = segmentForWrite(seg);
+            raf.seek(segOff);
+            raf.write(b, off, n);
+            dirty.add(seg);
+            position += n;
+            off += n;
+            len -= n;
+        }
+        if (position > end)
+            end = position;
+    }
+
+    public void writeInt(int v) throws IOException {
+        byte[] b = new byte[LogFile.INT_SIZE];
+        for (int i = b.length - 1; i >= 0; i--) {
+            b[i] = (byte) v;
+            v >>>= 8;
+        }
+        write(b);
+    }
+
+    public void writeLong(long v) throws IOException {
+        byte[] b = new byte[LogFile.LONG_SIZE];
+        for (int i = b.length - 1; i >= 0; i--) {
+            b[i] = (byte) v;
+            v >>>= 8;
+        }
+        write(b);
+    }
+
+    public void writeUTF(String s) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        new DataOutputStream(baos).writeUTF(s);
+        write(baos.toByteArray());
+    }
+
+    /**
+     * Read up to len bytes at the current position.
+     *
+     * @return the number of bytes read, or -1 at the end of the log
+     */
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (position >= end)
+            return -1;
+        if (position < getStartOffset())
+            throw new IOException("offset " + position + " has been truncated from the log");
+        len = (int) Math.min(len, end - position);
+        int total = 0;
+        while (len > 0) {
+            long seg = position / SEGMENT_SIZE;
+            int segOff = (int) (position % SEGMENT_SIZE);
+            int n = Math.min(len, SEGMENT_SIZE - segOff);
+            RandomAccessFile raf = segments.get(seg);
+            if (raf == null)
+                throw new IOException("missing log segment " + segmentFile(seg));
+            raf.seek(segOff);
+            raf.readFully(b, off, n);
+            position += n;
+            off += n;
+            len -= n;
+            total += n;
+        }
+        return total;
+    }
+
+    public void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = read(b, off, len);
+            if (n < 0)
+                throw new EOFException();
+            off += n;
+            len -= n;
+        }
+    }
+
+    public int readInt() throws IOException {
+        byte[] b = new byte[LogFile.INT_SIZE];
+        readFully(b);
+        int v = 0;
+        for (int i = 0; i < b.length; i++)
+            v = (v << 8) | (b[i] & 0xff);
+        return v;
+    }
+
+    public long readLong() throws IOException {
+        byte[] b = new byte[LogFile.LONG_SIZE];
+        readFully(b);
+        long v = 0;
+        for (int i = 0; i < b.length; i++)
+            v = (v << 8) | (b[i] & 0xff);
+        return v;
+    }
+
+    public String readUTF() throws IOException {
+        byte[] len = new byte[2];
+        readFully(len);
+        int utflen = ((len[0] & 0xff) << 8) | (len[1] & 0xff);
+        byte[] b = new byte[utflen + 2];
+        b[0] = len[0];
+        b[1] = len[1];
+        readFully(b, 2, utflen);
+        return new DataInputStream(new ByteArrayInputStream(b)).readUTF();
+    }
+
+    /**
+     * Force everything written since the last force to disk.  Segments are
+     * preallocated, so only file data (not metadata) needs syncing.
+     */
+    public void force() throws IOException {
+        for (Long seg : dirty) {
+            RandomAccessFile raf = segments.get(seg);
+            if (raf != null)
+                raf.getChannel().force(false);
+        }
+        dirty.clear();
+    }
+
+    public void close() throws IOException {
+        awaitPreallocation();
+        force();
+        writeHeader();
+        for (RandomAccessFile raf : segments.values())
+            raf.close();
+        segments.clear();
+        header.close();
+    }
+
+    private RandomAccessFile segmentForWrite(long seg) throws IOException {
+        RandomAccessFile raf = segments.get(seg);
+        if (raf == null) {
+            // normally already preallocated in the background
+            awaitPreallocation();
+            zeroFill(segmentFile(seg));
+            raf = new RandomAccessFile(segmentFile(seg), "rw");
+            segments.put(seg, raf);
+        }
+        // stay a segment ahead, so the next boundary crossing doesn't
+        // have to create a file on the commit path
+        if (!segments.containsKey(seg + 1)
+                && (preallocator == null || preallocSeg != seg + 1)) {
+            awaitPreallocation();
+            preallocSeg = seg + 1;
+            final File next = segmentFile(seg + 1);
+            preallocator = new Thread("log-preallocate-" + preallocSeg) {
+                public void run() {
+                    try {
+                        zeroFill(next);
+                    } catch (IOException e) {
+                        // segmentForWrite tries again, and reports it
+                    }
+                }
+            };
+            preallocator.setDaemon(true);
+            preallocator.start();
+        }
+        return raf;
+    }
+
+    /** Wait for the background preallocation, if any, to finish. */
+    void awaitPreallocation() {
+        if (preallocator == null)
+            return;
+        boolean interrupted = false;
+        while (true) {
+            try {
+                preallocator.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        preallocator = null;
+    }
+
+    /**
+     * Extend f with zeroes to SEGMENT_SIZE and sync it; if this creates f,
+     * sync its directory too, so the new entry survives a crash.
+     */
+    private static void zeroFill(File f) throws IOException {
+        boolean created = !f.exists();
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            long len = raf.length();
+            if (len < SEGMENT_SIZE) {
+                byte[] zeroes = new byte[ZERO_CHUNK];
+                raf.seek(len);
+                while (len < SEGMENT_SIZE) {
+                    int n = (int) Math.min(zeroes.length, SEGMENT_SIZE - len);
+                    raf.write(zeroes, 0, n);
+                    len += n;
+                }
+                raf.getChannel().force(true);
+            }
+        } finally {
+            raf.close();
+        }
+        if (created)
+            syncDirectory(f.getAbsoluteFile().getParentFile());
+    }
+
+    private static void syncDirectory(File dir) throws IOException {
+        FileChannel ch;
+        try {
+            ch = FileChannel.open(dir.toPath(), StandardOpenOption.READ);
+        } catch (IOException e) {
+            // some platforms can't open a directory; there the entry is
+            // made durable with the file
+            return;
+        }
+        try {
+            ch.force(true);
+        } finally {
+            ch.close();
+        }
+    }
+
+    private File segmentFile(long seg) {
+        return new File(base.getPath() + "." + seg);
+    }
+
+    private void writeHeader() throws IOException {
+        header.seek(0);
+        header.writeLong(checkpoint);
+        header.writeLong(firstSegment);
+        header.writeLong(end);
+    }
+}
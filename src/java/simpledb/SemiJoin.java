@@ -0,0 +1,175 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SemiJoin returns the tuples of its outer child (child1) that join with at
+ * least one tuple of its inner child (child2), each exactly once and
+ * without the inner's fields.  As an anti-join it returns the outer tuples
+ * that join with none.  These are the semantics of <tt>x IN (subquery)</tt>,
+ * <tt>x op (subquery)</tt> and <tt>x NOT IN (subquery)</tt>.
+ * <p>
+ * open() reads the inner once and keeps only what is needed to decide
+ * whether a match exists: the set of join values for EQUALS, the minimum or
+ * maximum for the range operators, and two distinct values for
+ * NOT_EQUALS.  Each outer tuple is then decided with one lookup instead of
+ * a scan of the inner.  LIKE keeps all the inner values and stops at the
+ * first match.
+ */
+public class SemiJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    JoinPredicate p;
+    DbIterator child1;
+    DbIterator child2;
+    boolean anti;
+
+    HashSet<Field> values;
+    ArrayList<Field> likeValues;
+    Field min;
+    Field max;
+    // for NOT_EQUALS: the first inner value, and whether another differs
+    Field first;
+    boolean distinct;
+    boolean innerEmpty;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate relating an outer tuple to an inner one
+     * @param child1
+     *            Iterator for the outer relation, whose tuples are returned
+     * @param child2
+     *            Iterator for the inner relation
+     * @param anti
+     *            true to return the outer tuples with no match instead of
+     *            those with one
+     */
+    public SemiJoin(JoinPredicate p, DbIterator child1, DbIterator child2, boolean anti) {
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.anti = anti;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return this.p;
+    }
+
+    public boolean isAnti() {
+        return anti;
+    }
+
+    /** The output has the outer relation's schema. */
+    public TupleDesc getTupleDesc() {
+        return child1.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        values = new HashSet<Field>();
+        likeValues = new ArrayList<Field>();
+        min = max = first = null;
+        distinct = false;
+        innerEmpty = true;
+        while (child2.hasNext()) {
+            Field f = child2.next().getField(p.getField2());
+            innerEmpty = false;
+            switch (p.getOperator()) {
+            case EQUALS:
+                values.add(f);
+                break;
+            case LESS_THAN:
+            case LESS_THAN_OR_EQ:
+                if (max == null || f.compare(Predicate.Op.GREATER_THAN, max))
+                    max = f;
+                break;
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                if (min == null || f.compare(Predicate.Op.LESS_THAN, min))
+                    min = f;
+                break;
+            case NOT_EQUALS:
+                if (first == null)
+                    first = f;
+                else if (!f.equals(first))
+                    distinct = true;
+                break;
+            default:
+                likeValues.add(f);
+            }
+        }
+        child2.close();
+        super.open();
+    }
+
+    /** @return true if some inner tuple joins with an outer value of f */
+    private boolean matches(Field f) {
+        if (innerEmpty)
+            return false;
+        switch (p.getOperator()) {
+        case EQUALS:
+            return values.contains(f);
+        case LESS_THAN:
+        case LESS_THAN_OR_EQ:
+            return f.compare(p.getOperator(), max);
+        case GREATER_THAN:
+        case GREATER_THAN_OR_EQ:
+            return f.compare(p.getOperator(), min);
+        case NOT_EQUALS:
+            return distinct || !f.equals(first);
+        default:
+            for (Field v : likeValues) {
+                if (f.compare(p.getOperator(), v))
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        values = null;
+        likeValues = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        // the summary of the inner is kept
+        child1.rewind();
+    }
+
+    /**
+     * Returns the next outer tuple that has a match (or, for an anti-join,
+     * none), or null if there are no more.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (child1.hasNext()) {
+            Tuple t = child1.next();
+            if (matches(t.getField(p.getField1())) != anti)
+                return t;
+        }
+        return null;
+    }
+
+    /**
+     * See Operator.java for additional notes
+     */
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{ this.child1, this.child2 };
+    }
+
+    /**
+     * See Operator.java for additional notes
+     */
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+    }
+
+}
@@ -7,7 +7,7 @@ import java.util.*;
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
  */
-public class SeqScan implements DbIterator {
+public class SeqScan implements BatchIterator {
 
     private static final long serialVersionUID = 1L;
     private TransactionId tid;
@@ -59,6 +59,16 @@ public class SeqScan implements DbIterator {
        
     }
 
+    /** @return the id of the table this operator scans */
+    public int getTableId() {
+        return this.tableid;
+    }
+
+    /** @return the transaction this scan runs as part of */
+    public TransactionId getTransactionId() {
+        return this.tid;
+    }
+
     /**
      * Reset the tableid, and tableAlias of this operator.
      * @param tableid
@@ -98,6 +108,15 @@ public class SeqScan implements DbIterator {
      *         prefixed with the tableAlias string from the constructor.
      */
     public TupleDesc getTupleDesc() {
+        return aliasedTupleDesc(tableid, tableAlias);
+    }
+
+    /**
+     * @return the TupleDesc of table tableid with each field named
+     *         tableAlias.fieldName, as scans of the table return it and as
+     *         the planner refers to it
+     */
+    static TupleDesc aliasedTupleDesc(int tableid, String tableAlias) {
         TupleDesc td= Database.getCatalog().getTupleDesc(tableid);
         String[] fieldAr=new String[td.numFields()];
         Type[] typeAr=new Type[td.numFields()];
@@ -110,7 +129,7 @@ public class SeqScan implements DbIterator {
         int j=0;
         while(j<=fieldAr.length-1){
             StringBuilder b= new StringBuilder();
-            fieldAr[j]=b.append(tableAlias).append(fieldAr[j]).toString();
+            fieldAr[j]=b.append(tableAlias).append('.').append(fieldAr[j]).toString();
             //System.out.println(fieldAr[j]);
             j++;
         }
@@ -135,6 +154,39 @@ public class SeqScan implements DbIterator {
         }
     }
 
+    /**
+     * Read up to a batch of tuples straight into the batch's columns.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        TupleBatch batch = null;
+        while (dbit.hasNext()) {
+            if (batch == null)
+                batch = new TupleBatch(getTupleDesc());
+            batch.add(dbit.next());
+            if (batch.isFull())
+                break;
+        }
+        return batch;
+    }
+
+    /**
+     * Push a runtime filter down into this scan: from now on, tuples whose
+     * field fieldIndex is certainly not in filter are dropped inside the
+     * file iterator instead of being returned.
+     *
+     * @param filter the filter, or null to remove it
+     * @param fieldIndex the index of the field to test, in this scan's
+     *        TupleDesc
+     */
+    public void setRuntimeFilter(BloomFilter filter, int fieldIndex) {
+        ((HeapFile.HeapFileIterator) dbit).setRuntimeFilter(filter, fieldIndex);
+    }
+
+    /** @return the number of tuples dropped by runtime filters so far */
+    public long getFilteredTuples() {
+        return ((HeapFile.HeapFileIterator) dbit).getFilteredTuples();
+    }
+
     public void close() {
         // some code goes here
         dbit.close();
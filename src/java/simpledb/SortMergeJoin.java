@@ -0,0 +1,224 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two children on an equality or inequality (band)
+ * predicate by sorting both on their join fields and merging.
+ * <p>
+ * A child that is already an ascending {@link OrderBy} on its join field is
+ * used as is; any other child is wrapped in one.  The sorted right input is
+ * buffered, and the left input is streamed through it.  Because both sides
+ * are sorted, the right tuples matching a left tuple always form one
+ * contiguous range (two for NOT_EQUALS), found from two cursors that only
+ * move forward: the first right tuple not less than the left key, and the
+ * first one greater than it.  The predicate is never evaluated on a pair
+ * that does not join.
+ * <p>
+ * Output is the left tuple followed by the right tuple, in left-key order.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    JoinPredicate p;
+    DbIterator child1;
+    DbIterator child2;
+    DbIterator sorted1;
+    DbIterator sorted2;
+    TupleDesc td;
+
+    ArrayList<Tuple> right;
+    // first right tuple with key >= the current left key, and first with
+    // key > the current left key
+    int lo, hi;
+
+    Tuple left;
+    // the right tuples joining with left are [from, to) followed by
+    // [from2, to2)
+    int pos, to, from2, to2;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join
+     * them on.
+     *
+     * @param p
+     *            The predicate to use to join the children; any operator
+     *            but LIKE
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (p.getOperator() == Predicate.Op.LIKE)
+            throw new IllegalArgumentException("SortMergeJoin does not support LIKE");
+        this.p = p;
+        setChildren(new DbIterator[] { child1, child2 });
+    }
+
+    /**
+     * @return child, sorted ascending on field; child itself if it is
+     *         already sorted that way
+     */
+    static DbIterator sortedOn(DbIterator child, int field) {
+        if (child instanceof OrderBy) {
+            OrderBy ob = (OrderBy) child;
+            if (ob.isASC() && ob.getOrderByField() == field)
+                return child;
+        }
+        return new OrderBy(field, true, child);
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return this.p;
+    }
+
+    /**
+     * @return the field name of join field1, qualified by alias or table name
+     */
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    /**
+     * @return the field name of join field2, qualified by alias or table name
+     */
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        sorted1.open();
+        sorted2.open();
+        right = new ArrayList<Tuple>();
+        while (sorted2.hasNext())
+            right.add(sorted2.next());
+        reset();
+        super.open();
+    }
+
+    private void reset() {
+        lo = 0;
+        hi = 0;
+        left = null;
+        pos = to = from2 = to2 = 0;
+    }
+
+    public void close() {
+        super.close();
+        sorted1.close();
+        sorted2.close();
+        right = null;
+        left = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        sorted1.rewind();
+        reset();
+    }
+
+    /** @return a negative, zero or positive number as a is less than, equal to or greater than b */
+    private static int compare(Field a, Field b) {
+        if (a.compare(Predicate.Op.EQUALS, b))
+            return 0;
+        return a.compare(Predicate.Op.LESS_THAN, b) ? -1 : 1;
+    }
+
+    /**
+     * Advance the cursors to a new left tuple and work out which right
+     * tuples it joins with.
+     */
+    private void advance(Tuple l) {
+        Field key = l.getField(p.getField1());
+        int f2 = p.getField2();
+        int n = right.size();
+        while (lo < n && compare(right.get(lo).getField(f2), key) < 0)
+            lo++;
+        if (hi < lo)
+            hi = lo;
+        while (hi < n && compare(right.get(hi).getField(f2), key) <= 0)
+            hi++;
+
+        from2 = to2 = 0;
+        switch (p.getOperator()) {
+        case EQUALS:
+            pos = lo;
+            to = hi;
+            break;
+        case LESS_THAN:
+            pos = hi;
+            to = n;
+            break;
+        case LESS_THAN_OR_EQ:
+            pos = lo;
+            to = n;
+            break;
+        case GREATER_THAN:
+            pos = 0;
+            to = lo;
+            break;
+        case GREATER_THAN_OR_EQ:
+            pos = 0;
+            to = hi;
+            break;
+        case NOT_EQUALS:
+            pos = 0;
+            to = lo;
+            from2 = hi;
+            to2 = n;
+            break;
+        default:
+            throw new IllegalStateException("unsupported operator " + p.getOperator());
+        }
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (left != null) {
+                if (pos >= to && from2 < to2) {
+                    pos = from2;
+                    to = to2;
+                    from2 = to2 = 0;
+                }
+                if (pos < to)
+                    return Join.mergeTuples(td, left, right.get(pos++));
+            }
+            if (!sorted1.hasNext())
+                return null;
+            left = sorted1.next();
+            advance(left);
+        }
+    }
+
+    /**
+     * See Operator.java for additional notes
+     */
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{ this.child1, this.child2 };
+    }
+
+    /**
+     * See Operator.java for additional notes
+     */
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+        sorted1 = sortedOn(child1, p.getField1());
+        sorted2 = sortedOn(child2, p.getField2());
+        td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+}
@@ -0,0 +1,134 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.NoSuchElementException;
+
+/**
+ * SpillFile is a temporary file of tuples that operators write to when
+ * their input does not fit in memory.  Tuples are appended with
+ * {@link #add} and read back, in the same order, through {@link #iterator};
+ * reading may be repeated, and appending may continue after a read.
+ * Record ids are not kept.
+ */
+class SpillFile {
+
+    private final TupleDesc td;
+    private final File file;
+    private DataOutputStream out;
+    private int size;
+
+    /**
+     * Create an empty spill file for tuples with schema td.
+     */
+    public SpillFile(TupleDesc td) throws IOException {
+        this.td = td;
+        this.file = File.createTempFile("spill", ".tmp");
+        this.file.deleteOnExit();
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of tuples written */
+    public int size() {
+        return size;
+    }
+
+    /** @return the number of bytes written */
+    public long bytes() {
+        return (long) size * td.getSize();
+    }
+
+    public void add(Tuple t) throws IOException {
+        if (out == null)
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+        for (int i = 0; i < td.numFields(); i++)
+            t.getField(i).serialize(out);
+        size++;
+    }
+
+    /**
+     * @return an iterator over the tuples written so far; the iterator
+     *         must be opened before use
+     */
+    public DbIterator iterator() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+        return new Reader(size);
+    }
+
+    /** Remove the file; the SpillFile may not be used afterwards. */
+    public void delete() {
+        try {
+            if (out != null)
+                out.close();
+        } catch (IOException e) {
+            // the file is going away anyway
+        }
+        out = null;
+        file.delete();
+    }
+
+    private class Reader implements DbIterator {
+        private static final long serialVersionUID = 1L;
+        private final int count;
+        private DataInputStream in;
+        private int read;
+
+        Reader(int count) {
+            this.count = count;
+        }
+
+        public void open() throws DbException {
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            } catch (IOException e) {
+                throw new DbException("can't read spill file " + file + ": " + e.getMessage());
+            }
+            read = 0;
+        }
+
+        public boolean hasNext() {
+            return in != null && read < count;
+        }
+
+        public Tuple next() throws DbException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++)
+                    t.setField(i, td.getFieldType(i).parse(in));
+            } catch (ParseException e) {
+                throw new DbException("corrupt spill file " + file);
+            }
+            read++;
+            return t;
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing was written through this stream
+                }
+            }
+            in = null;
+        }
+    }
+}
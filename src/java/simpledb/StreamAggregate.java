@@ -0,0 +1,198 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * StreamAggregate computes the same aggregates as {@link Aggregate}, but for
+ * a child whose tuples arrive grouped: every group's tuples are adjacent,
+ * as when the child is sorted on the group-by fields.  It keeps only the
+ * running state of the current group and emits the group as soon as a
+ * tuple with a different key is read, so it needs O(1) memory and returns
+ * its first group without reading the whole child.
+ * <p>
+ * Output tuples have the same schema as Aggregate's: the group-by fields
+ * followed by one field per aggregate.  Groups come out in input order.
+ * SUM and AVG need a numeric field; COUNT, MIN and MAX accept any type.
+ */
+public class StreamAggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    DbIterator child;
+    int[] afields, gfields;
+    Type[] atypes;
+    Aggregator.Op[] aops;
+    TupleDesc td;
+
+    // the first tuple of the next group, or null at the end of the input
+    Tuple pending;
+    boolean started;
+    long[] sum;
+    double[] dsum;
+    long[] count;
+    Field[] min;
+    Field[] max;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples, grouped on gfields
+     * @param afields
+     *            The columns over which we are computing aggregates.
+     * @param gfields
+     *            The columns over which we are grouping the result; empty
+     *            if there is no grouping
+     * @param aops
+     *            The aggregation operator to apply to each of afields
+     */
+    public StreamAggregate(DbIterator child, int[] afields, int[] gfields, Aggregator.Op[] aops) {
+        if (afields.length == 0 || afields.length != aops.length)
+            throw new IllegalArgumentException("need one operator per aggregate field");
+        TupleDesc childTd = child.getTupleDesc();
+        for (int i = 0; i < aops.length; i++) {
+            switch (aops[i]) {
+            case COUNT:
+            case MIN:
+            case MAX:
+                break;
+            case SUM:
+            case AVG:
+                if (childTd.getFieldType(afields[i]) == Type.STRING_TYPE)
+                    throw new IllegalArgumentException(aops[i] + " is not supported on "
+                                                       + childTd.getFieldType(afields[i]));
+                break;
+            default:
+                throw new IllegalArgumentException(aops[i] + " is not supported on "
+                                                   + childTd.getFieldType(afields[i]));
+            }
+        }
+        this.child = child;
+        this.afields = afields;
+        this.gfields = gfields;
+        this.aops = aops;
+        this.td = Aggregate.outputDesc(childTd, afields, gfields, aops);
+        this.atypes = new Type[afields.length];
+        for (int i = 0; i < afields.length; i++)
+            atypes[i] = childTd.getFieldType(afields[i]);
+        this.sum = new long[afields.length];
+        this.dsum = new double[afields.length];
+        this.count = new long[afields.length];
+        this.min = new Field[afields.length];
+        this.max = new Field[afields.length];
+    }
+
+    /** @return the group-by field indexes in the <b>INPUT</b> tuples */
+    public int[] groupFields() {
+        return this.gfields;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        started = false;
+        pending = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        pending = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        started = false;
+        pending = null;
+    }
+
+    private boolean sameGroup(Tuple a, Tuple b) {
+        for (int g : gfields) {
+            if (!a.getField(g).equals(b.getField(g)))
+                return false;
+        }
+        return true;
+    }
+
+    private void add(Tuple t) {
+        for (int i = 0; i < afields.length; i++) {
+            Field f = t.getField(afields[i]);
+            count[i]++;
+            if (f instanceof IntField)
+                sum[i] += ((IntField) f).getValue();
+            else if (f instanceof LongField)
+                sum[i] += ((LongField) f).getValue();
+            else if (f instanceof DoubleField)
+                dsum[i] += ((DoubleField) f).getValue();
+            if (min[i] == null || f.compare(Predicate.Op.LESS_THAN, min[i]))
+                min[i] = f;
+            if (max[i] == null || f.compare(Predicate.Op.GREATER_THAN, max[i]))
+                max[i] = f;
+        }
+    }
+
+    /**
+     * Reads the tuples of the next group and returns its result, or null if
+     * there are no more groups.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (!started) {
+            started = true;
+            pending = child.hasNext() ? child.next() : null;
+        }
+        if (pending == null)
+            return null;
+        Tuple first = pending;
+        pending = null;
+        Arrays.fill(sum, 0);
+        Arrays.fill(dsum, 0);
+        Arrays.fill(count, 0);
+        Arrays.fill(min, null);
+        Arrays.fill(max, null);
+        add(first);
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (!sameGroup(first, t)) {
+                pending = t;
+                break;
+            }
+            add(t);
+        }
+
+        Tuple out = new Tuple(td);
+        for (int i = 0; i < gfields.length; i++)
+            out.setField(i, first.getField(gfields[i]));
+        for (int i = 0; i < afields.length; i++) {
+            Field result;
+            switch (aops[i]) {
+            case MIN: result = min[i]; break;
+            case MAX: result = max[i]; break;
+            case COUNT: result = new IntField((int) count[i]); break;
+            default: result = Aggregate.sumOrAvg(aops[i], atypes[i], sum[i], dsum[i], count[i]);
+            }
+            out.setField(gfields.length + i, result);
+        }
+        return out;
+    }
+
+    /**
+     * See Operator.java for additional notes
+     */
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    /**
+     * See Operator.java for additional notes
+     */
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+
+}
@@ -43,6 +43,14 @@ public class StringAggregator implements Aggregator {
         count.put(groupbyfield, c+1);
     }
 
+    public int numGroups() {
+        return count.size();
+    }
+
+    public boolean hasGroup(Tuple tup) {
+        return count.containsKey(gbfield == -1 ? null : tup.getField(gbfield));
+    }
+
     /**
      * Returns a DbIterator over group aggregate results.
      *
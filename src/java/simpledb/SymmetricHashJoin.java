@@ -0,0 +1,154 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SymmetricHashJoin is a pipelined equi-join.  It reads its two children
+ * alternately and keeps a hash table for each; every tuple read is added to
+ * its own side's table and probed against the other side's, so each
+ * matching pair is produced as soon as its second tuple arrives.  Unlike
+ * {@link HashJoin}, nothing has to be read in full before the first result,
+ * which suits interactive queries that are often cancelled after the first
+ * rows; the price is that both inputs end up in memory.
+ * <p>
+ * Output tuples are the left (child1) tuple followed by the right (child2)
+ * tuple.
+ */
+public class SymmetricHashJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    JoinPredicate p;
+    DbIterator child1;
+    DbIterator child2;
+    TupleDesc td;
+
+    HashMap<Field, ArrayList<Tuple>> leftTable;
+    HashMap<Field, ArrayList<Tuple>> rightTable;
+    // which child to read from next
+    boolean readLeft;
+
+    Tuple current;
+    boolean currentIsLeft;
+    ArrayList<Tuple> matches;
+    int matchPos;
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator
+     *            must be Predicate.Op.EQUALS
+     * @param child1
+     *            Iterator for the left relation to join
+     * @param child2
+     *            Iterator for the right relation to join
+     */
+    public SymmetricHashJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("SymmetricHashJoin requires an equality predicate");
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return this.p;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        reset();
+        super.open();
+    }
+
+    private void reset() {
+        leftTable = new HashMap<Field, ArrayList<Tuple>>();
+        rightTable = new HashMap<Field, ArrayList<Tuple>>();
+        readLeft = true;
+        current = null;
+        matches = null;
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        leftTable = null;
+        rightTable = null;
+        current = null;
+        matches = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        child2.rewind();
+        reset();
+    }
+
+    private static void insert(HashMap<Field, ArrayList<Tuple>> table, Field key, Tuple t) {
+        ArrayList<Tuple> bucket = table.get(key);
+        if (bucket == null) {
+            bucket = new ArrayList<Tuple>(1);
+            table.put(key, bucket);
+        }
+        bucket.add(t);
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (matches == null || matchPos >= matches.size()) {
+            boolean moreLeft = child1.hasNext();
+            boolean moreRight = child2.hasNext();
+            if (!moreLeft && !moreRight)
+                return null;
+            // alternate while both sides have tuples
+            currentIsLeft = moreLeft && (readLeft || !moreRight);
+            readLeft = !currentIsLeft;
+            if (currentIsLeft) {
+                current = child1.next();
+                Field key = current.getField(p.getField1());
+                insert(leftTable, key, current);
+                matches = rightTable.get(key);
+            } else {
+                current = child2.next();
+                Field key = current.getField(p.getField2());
+                insert(rightTable, key, current);
+                matches = leftTable.get(key);
+            }
+            matchPos = 0;
+        }
+        Tuple match = matches.get(matchPos++);
+        return currentIsLeft ? Join.mergeTuples(td, current, match)
+                             : Join.mergeTuples(td, match, current);
+    }
+
+    /**
+     * See Operator.java for additional notes
+     */
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[]{ this.child1, this.child2 };
+    }
+
+    /**
+     * See Operator.java for additional notes
+     */
+    @Override
+    public void setChildren(DbIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+    }
+
+}
@@ -0,0 +1,133 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN implements ORDER BY ... LIMIT n: it returns the first n tuples of
+ * its child in the order of one field.  Rather than sorting the whole
+ * input like {@link OrderBy}, open() keeps the best n tuples seen so far in
+ * a heap whose root is the worst of them; each further tuple either
+ * replaces the root or is dropped.  This takes O(N log n) time and holds
+ * only n tuples, for an input of N.  Tuples with equal sort keys keep
+ * their input order, as with OrderBy.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private DbIterator child;
+    private TupleDesc td;
+    private int orderByField;
+    private boolean asc;
+    private int limit;
+    private ArrayList<Tuple> result;
+    private Iterator<Tuple> it;
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param limit
+     *            the number of tuples to return
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int orderbyField, boolean asc, int limit, DbIterator child) {
+        if (limit < 0)
+            throw new IllegalArgumentException("negative limit " + limit);
+        this.child = child;
+        this.td = child.getTupleDesc();
+        this.orderByField = orderbyField;
+        this.asc = asc;
+        this.limit = limit;
+    }
+
+    public boolean isASC() {
+        return this.asc;
+    }
+
+    public int getOrderByField() {
+        return this.orderByField;
+    }
+
+    public int getLimit() {
+        return this.limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        final TupleComparator cmp = new TupleComparator(orderByField, asc);
+        // the root is the tuple that would come last in the output: the
+        // largest key, and among equal keys the latest one read
+        PriorityQueue<Entry> heap = new PriorityQueue<Entry>(Math.max(1, limit),
+            new Comparator<Entry>() {
+                public int compare(Entry a, Entry b) {
+                    int c = cmp.compare(b.t, a.t);
+                    return c != 0 ? c : (b.seq < a.seq ? -1 : (b.seq == a.seq ? 0 : 1));
+                }
+            });
+        long seq = 0;
+        while (limit > 0 && child.hasNext()) {
+            Tuple t = child.next();
+            if (heap.size() < limit) {
+                heap.add(new Entry(t, seq++));
+            } else if (cmp.compare(t, heap.peek().t) < 0) {
+                // a later tuple only displaces the root with a strictly
+                // better key, so ties keep the earlier tuple
+                heap.poll();
+                heap.add(new Entry(t, seq++));
+            }
+        }
+        child.close();
+        result = new ArrayList<Tuple>(heap.size());
+        while (!heap.isEmpty())
+            result.add(heap.poll().t);
+        Collections.reverse(result);
+        it = result.iterator();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        it = null;
+        result = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        it = result.iterator();
+    }
+
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (it != null && it.hasNext())
+            return it.next();
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+
+    private static class Entry {
+        final Tuple t;
+        final long seq;
+
+        Entry(Tuple t, long seq) {
+            this.t = t;
+            this.seq = seq;
+        }
+    }
+}
@@ -9,15 +9,63 @@ import java.io.*;
 
 public class Transaction {
     private final TransactionId tid;
+    private final boolean readOnly;
+    private final boolean optimistic;
     volatile boolean started = false;
 
     public Transaction() {
+        this(false);
+    }
+
+    /**
+     * Create a transaction.  A read-only transaction reads from a snapshot
+     * of the database taken when it starts (see
+     * {@link BufferPool#beginSnapshot}); it takes no page locks, may not
+     * modify any pages, and writes no log records, so committing it costs
+     * no log force.
+     *
+     * @param readOnly true if the transaction will only read
+     */
+    public Transaction(boolean readOnly) {
+        this(readOnly, false);
+    }
+
+    /**
+     * Create a transaction, optionally running it under optimistic
+     * concurrency control: it reads and writes without locks, and
+     * {@link #commit} validates it against the transactions that committed
+     * while it ran (see {@link BufferPool#validate}).
+     *
+     * @param readOnly true if the transaction will only read
+     * @param optimistic true to validate at commit instead of locking
+     */
+    public Transaction(boolean readOnly, boolean optimistic) {
         tid = new TransactionId();
+        this.readOnly = readOnly;
+        this.optimistic = optimistic && !readOnly;
+    }
+
+    /** @return true if this transaction reads from a snapshot */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /** @return true if this transaction is validated at commit */
+    public boolean isOptimistic() {
+        return optimistic;
     }
 
     /** Start the transaction running */
     public void start() {
         started = true;
+        if (readOnly) {
+            // nothing to undo or redo, so a read-only transaction never
+            // appears in the log
+            Database.getBufferPool().beginSnapshot(tid);
+            return;
+        }
+        if (optimistic)
+            Database.getBufferPool().beginOptimistic(tid);
         try {
             Database.getLogFile().logXactionBegin(tid);
         } catch (IOException e) {
@@ -29,8 +77,21 @@ public class Transaction {
         return tid;
     }
 
-    /** Finish the transaction */
-    public void commit() throws IOException {
+    /**
+     * Finish the transaction.  An optimistic transaction that fails
+     * validation is aborted instead.
+     *
+     * @throws TransactionAbortedException if validation failed
+     */
+    public void commit() throws IOException, TransactionAbortedException {
+        if (started && optimistic) {
+            try {
+                Database.getBufferPool().validate(tid);
+            } catch (TransactionAbortedException e) {
+                abort();
+                throw e;
+            }
+        }
         transactionComplete(false);
     }
 
@@ -42,7 +103,11 @@ public class Transaction {
     /** Handle the details of transaction commit / abort */
     public void transactionComplete(boolean abort) throws IOException {
 
-        if (started) {
+        if (started && readOnly) {
+            // no log records and no pages to flush; just drop the snapshot
+            Database.getBufferPool().transactionComplete(tid, !abort);
+            started = false;
+        } else if (started) {
             //write commit / abort records
             if (abort) {
                 Database.getLogFile().logAbort(tid); //does rollback too
@@ -0,0 +1,171 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TupleBatch holds up to a fixed number of tuples column by column: INT
+ * columns as int arrays, columns of other types as Field arrays.  A
+ * selection vector lists the rows that are part of the batch, so a filter
+ * can drop rows by rewriting the vector without moving any column data,
+ * and a projection can share the columns it keeps with its input batch.
+ * <p>
+ * Rows are addressed two ways: the i'th selected row, for i below
+ * {@link #size}, is the physical row {@link #row}(i) of the columns.
+ * Record ids are not kept.
+ */
+public class TupleBatch {
+
+    /** Number of rows operators put in a batch. */
+    public static final int DEFAULT_SIZE = 1024;
+
+    private final TupleDesc td;
+    // ints[c] holds column c if it is an INT column, fields[c] otherwise
+    private final int[][] ints;
+    private final Field[][] fields;
+    private final int capacity;
+    private int rows;
+    // the selected physical rows, or null if every row is selected
+    private int[] selection;
+    private int selected;
+
+    /**
+     * Create an empty batch with room for DEFAULT_SIZE rows of schema td.
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_SIZE);
+    }
+
+    /**
+     * Create an empty batch with room for capacity rows of schema td.
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        int n = td.numFields();
+        this.ints = new int[n][];
+        this.fields = new Field[n][];
+        for (int c = 0; c < n; c++) {
+            if (td.getFieldType(c) == Type.INT_TYPE)
+                ints[c] = new int[capacity];
+            else
+                fields[c] = new Field[capacity];
+        }
+    }
+
+    private TupleBatch(TupleDesc td, int[][] ints, Field[][] fields, int capacity,
+                       int rows, int[] selection, int selected) {
+        this.td = td;
+        this.ints = ints;
+        this.fields = fields;
+        this.capacity = capacity;
+        this.rows = rows;
+        this.selection = selection;
+        this.selected = selected;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of selected rows */
+    public int size() {
+        return selection == null ? rows : selected;
+    }
+
+    /** @return true if no more rows can be added */
+    public boolean isFull() {
+        return rows == capacity;
+    }
+
+    /** @return the physical row of the i'th selected row */
+    public int row(int i) {
+        return selection == null ? i : selection[i];
+    }
+
+    /**
+     * @return the values of INT column c, indexed by physical row
+     * @throws IllegalArgumentException if column c is not an INT column
+     */
+    public int[] intColumn(int c) {
+        if (ints[c] == null)
+            throw new IllegalArgumentException("column " + c + " is not an INT column");
+        return ints[c];
+    }
+
+    /** @return the value of column c in physical row r */
+    public Field getField(int c, int r) {
+        return ints[c] != null ? new IntField(ints[c][r]) : fields[c][r];
+    }
+
+    /** @return the i'th selected row as a Tuple */
+    public Tuple getTuple(int i) {
+        int r = row(i);
+        Tuple t = new Tuple(td);
+        for (int c = 0; c < ints.length; c++)
+            t.setField(c, getField(c, r));
+        return t;
+    }
+
+    /**
+     * Append t, which must have this batch's schema, as a new row.
+     *
+     * @throws IllegalStateException if the batch is full or has a
+     *         selection vector
+     */
+    public void add(Tuple t) {
+        if (isFull())
+            throw new IllegalStateException("batch is full");
+        if (selection != null)
+            throw new IllegalStateException("rows cannot be added to a filtered batch");
+        for (int c = 0; c < ints.length; c++) {
+            Field f = t.getField(c);
+            if (ints[c] != null)
+                ints[c][rows] = ((IntField) f).getValue();
+            else
+                fields[c][rows] = f;
+        }
+        rows++;
+    }
+
+    /**
+     * Keep only the first n of the physical rows listed in sel, which must
+     * be increasing and a subset of the selected rows.  The batch takes
+     * ownership of sel.
+     */
+    public void select(int[] sel, int n) {
+        selection = sel;
+        selected = n;
+    }
+
+    /**
+     * @return a batch with the same selected rows and the columns of this
+     *         batch listed in cols, typed as in td; the column data is shared,
+     *         not copied
+     */
+    public TupleBatch project(int[] cols, TupleDesc td) {
+        int[][] pints = new int[cols.length][];
+        Field[][] pfields = new Field[cols.length][];
+        for (int i = 0; i < cols.length; i++) {
+            pints[i] = ints[cols[i]];
+            pfields[i] = fields[cols[i]];
+        }
+        return new TupleBatch(td, pints, pfields, capacity, rows,
+                              selection == null ? null : selection.clone(), selected);
+    }
+
+    /**
+     * Read the next batch from it, natively if it is a BatchIterator and
+     * otherwise by collecting up to DEFAULT_SIZE of its tuples.
+     *
+     * @return the next batch, never empty, or null if it has no more tuples
+     */
+    public static TupleBatch nextBatch(DbIterator it)
+            throws DbException, TransactionAbortedException {
+        if (it instanceof BatchIterator)
+            return ((BatchIterator) it).nextBatch();
+        TupleBatch batch = new TupleBatch(it.getTupleDesc());
+        while (!batch.isFull() && it.hasNext())
+            batch.add(it.next());
+        return batch.size() == 0 ? null : batch;
+    }
+}
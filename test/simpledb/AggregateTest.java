@@ -55,13 +55,13 @@ public class AggregateTest extends SimpleDbTestBase {
                     "c", 7 });
 
     this.sum = TestUtil.createTupleList(width1,
-        new int[] { 1, 12,
-                    3, 12,
-                    5, 7 });
+        new Object[] { 1, 12L,
+                    3, 12L,
+                    5, 7L });
     this.sumstring = TestUtil.createTupleList(width1,
-        new Object[] { "a", 12,
-                    "b", 12,
-                    "c", 7 });
+        new Object[] { "a", 12L,
+                    "b", 12L,
+                    "c", 7L });
 
     this.avg = TestUtil.createTupleList(width1,
         new int[] { 1, 4,
@@ -176,6 +176,97 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Several aggregates over a composite grouping, computed in one pass
+   */
+  @Test public void multiAggregate() throws Exception {
+    DbIterator child = TestUtil.createTupleList(3,
+        new int[] { 1, 1, 5,
+                    1, 1, 7,
+                    1, 2, 4,
+                    2, 1, 9,
+                    2, 1, 1 });
+    Aggregate op = new Aggregate(child, new int[] { 2, 2, 2 }, new int[] { 0, 1 },
+        new Aggregator.Op[] { Aggregator.Op.COUNT, Aggregator.Op.SUM, Aggregator.Op.MAX });
+    DbIterator expected = TestUtil.createTupleList(5,
+        new Object[] { 1, 1, 2, 12L, 7,
+                       1, 2, 1, 4L, 4,
+                       2, 1, 2, 10L, 9 });
+    assertEquals(expected.getTupleDesc(), op.getTupleDesc());
+    op.open();
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+    op.rewind();
+    int groups = 0;
+    while (op.hasNext()) {
+      op.next();
+      groups++;
+    }
+    assertEquals(3, groups);
+
+    // reopening aggregates the child afresh
+    op.close();
+    op.open();
+    expected.rewind();
+    TestUtil.matchAllTuples(expected, op);
+  }
+
+  /**
+   * SUM and AVG over LONG and DOUBLE fields keep the field's type
+   */
+  @Test public void longAndDoubleAggregates() throws Exception {
+    DbIterator child = TestUtil.createTupleList(3,
+        new Object[] { 1, Long.MAX_VALUE / 2, 0.5,
+                       1, Long.MAX_VALUE / 2, 0.25,
+                       2, 3L, -1.0 });
+    Aggregate op = new Aggregate(child, new int[] { 1, 1, 2, 2 }, new int[] { 0 },
+        new Aggregator.Op[] { Aggregator.Op.SUM, Aggregator.Op.AVG,
+                              Aggregator.Op.SUM, Aggregator.Op.MAX });
+    DbIterator expected = TestUtil.createTupleList(5,
+        new Object[] { 1, Long.MAX_VALUE - 1, Long.MAX_VALUE / 2, 0.75, 0.5,
+                       2, 3L, 3L, -1.0, -1.0 });
+    assertEquals(expected.getTupleDesc(), op.getTupleDesc());
+    op.open();
+    TestUtil.matchAllTuples(expected, op);
+    op.close();
+  }
+
+  /**
+   * Groups beyond the memory budget are spilled and aggregated partition
+   * by partition, with the same results
+   */
+  @Test public void spillsWhenOverBudget() throws Exception {
+    int rows = 60000, keys = 20000;
+    int[] data = new int[rows * 2];
+    int[] sums = new int[keys];
+    for (int i = 0; i < rows; i++) {
+      data[2 * i] = (i * 7) % keys;
+      data[2 * i + 1] = i;
+      sums[(i * 7) % keys] += i;
+    }
+    Aggregate op = new Aggregate(TestUtil.createTupleList(2, data), new int[] { 1, 1 },
+        new int[] { 0 }, new Aggregator.Op[] { Aggregator.Op.COUNT, Aggregator.Op.SUM }, 1);
+    op.open();
+    for (int pass = 0; pass < 2; pass++) {
+      boolean[] seen = new boolean[keys];
+      int groups = 0;
+      while (op.hasNext()) {
+        Tuple t = op.next();
+        int key = ((IntField) t.getField(0)).getValue();
+        assertTrue(!seen[key]);
+        seen[key] = true;
+        groups++;
+        assertEquals(3, ((IntField) t.getField(1)).getValue());
+        assertEquals(sums[key], ((LongField) t.getField(2)).getValue());
+      }
+      assertEquals(keys, groups);
+      assertTrue(op.getSpilledTuples() > 0);
+      assertTrue(op.getSpilledBytes() >= op.getSpilledTuples() * 8);
+      op.rewind();
+    }
+    op.close();
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,121 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ApproximateAggregateTest extends SimpleDbTestBase {
+
+  private static void assertWithin(double expected, double actual, double relative) {
+    assertTrue(actual + " is not within " + relative + " of " + expected,
+        Math.abs(actual - expected) <= relative * expected);
+  }
+
+  /**
+   * Distinct counts are estimated within a few percent, regardless of
+   * duplicates
+   */
+  @Test public void hyperLogLogEstimates() {
+    for (int distinct : new int[] { 10, 1000, 200000 }) {
+      HyperLogLog hll = new HyperLogLog();
+      for (int round = 0; round < 3; round++) {
+        for (int i = 0; i < distinct; i++)
+          hll.add(new IntField(i * 31 + 7));
+      }
+      assertWithin(distinct, hll.estimate(), 0.05);
+    }
+  }
+
+  @Test public void hyperLogLogMerges() {
+    HyperLogLog whole = new HyperLogLog(), a = new HyperLogLog(), b = new HyperLogLog();
+    for (int i = 0; i < 50000; i++) {
+      Field f = new StringField("user" + i, Type.STRING_LEN);
+      whole.add(f);
+      (i % 3 == 0 ? a : b).add(f);
+    }
+    a.merge(b);
+    assertEquals(whole.estimate(), a.estimate());
+  }
+
+  /**
+   * Quantiles of a shuffled stream are within the sketch's rank error, and
+   * merging partial sketches keeps them there
+   */
+  @Test public void kllQuantiles() {
+    int n = 100000;
+    int[] values = new int[n];
+    for (int i = 0; i < n; i++)
+      values[i] = i;
+    Random r = new Random(133);
+    for (int i = n - 1; i > 0; i--) {
+      int j = r.nextInt(i + 1);
+      int t = values[i];
+      values[i] = values[j];
+      values[j] = t;
+    }
+    KllSketch whole = new KllSketch();
+    KllSketch[] parts = { new KllSketch(), new KllSketch(), new KllSketch() };
+    for (int i = 0; i < n; i++) {
+      whole.add(values[i]);
+      parts[i % 3].add(values[i]);
+    }
+    parts[0].merge(parts[1]);
+    parts[0].merge(parts[2]);
+    for (KllSketch sketch : new KllSketch[] { whole, parts[0] }) {
+      assertEquals(n, sketch.count());
+      for (double q : new double[] { 0.1, 0.5, 0.9, 0.99 })
+        assertEquals(q * n, sketch.quantile(q), 0.03 * n);
+    }
+  }
+
+  /**
+   * The approximate operators run through Aggregate, grouped, with output
+   * types following the input field's
+   */
+  @Test public void approximateAggregates() throws Exception {
+    int rows = 20000;
+    Object[] data = new Object[rows * 3];
+    for (int i = 0; i < rows; i++) {
+      data[3 * i] = i % 2;
+      data[3 * i + 1] = "v" + (i % 500);
+      data[3 * i + 2] = (double) (i / 2);
+    }
+    Aggregate op = new Aggregate(TestUtil.createTupleList(3, data), new int[] { 1, 2, 2 },
+        new int[] { 0 }, new Aggregator.Op[] { Aggregator.Op.APPROX_COUNT_DISTINCT,
+                                               Aggregator.Op.APPROX_MEDIAN,
+                                               Aggregator.Op.APPROX_P99 });
+    assertEquals(new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE,
+        Type.DOUBLE_TYPE, Type.DOUBLE_TYPE }), op.getTupleDesc());
+    op.open();
+    int groups = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      groups++;
+      // each parity sees every other one of the 500 strings
+      assertWithin(250, ((IntField) t.getField(1)).getValue(), 0.05);
+      assertEquals(rows / 4, ((DoubleField) t.getField(2)).getValue(), 0.03 * rows / 2);
+      assertEquals(0.99 * rows / 2, ((DoubleField) t.getField(3)).getValue(), 0.03 * rows / 2);
+    }
+    assertEquals(2, groups);
+    op.close();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void percentileNeedsNumbers() {
+    new MultiAggregator(new int[0], new Type[0], new int[] { 0 },
+        new Type[] { Type.STRING_TYPE }, new Aggregator.Op[] { Aggregator.Op.APPROX_MEDIAN });
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ApproximateAggregateTest.class);
+  }
+}
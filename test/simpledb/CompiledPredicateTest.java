@@ -0,0 +1,113 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class CompiledPredicateTest extends SimpleDbTestBase {
+
+  private static Tuple tuple(Field... fields) {
+    Type[] types = new Type[fields.length];
+    for (int i = 0; i < fields.length; i++)
+      types[i] = fields[i].getType();
+    Tuple t = new Tuple(new TupleDesc(types));
+    for (int i = 0; i < fields.length; i++)
+      t.setField(i, fields[i]);
+    return t;
+  }
+
+  // for every type, values below, equal to and above the operand
+  Field[][] values = {
+      { new IntField(-3), new IntField(2), new IntField(7) },
+      { new LongField(Long.MIN_VALUE), new LongField(1L << 40), new LongField(Long.MAX_VALUE) },
+      { new DoubleField(-0.5), new DoubleField(2.25), new DoubleField(Double.NaN) },
+      { new StringField("abc", Type.STRING_LEN), new StringField("abd", Type.STRING_LEN),
+        new StringField("abe", Type.STRING_LEN) } };
+
+  /**
+   * Compiled predicates agree with Predicate.filter for every type and
+   * operator
+   */
+  @Test public void matchesPredicate() {
+    for (Field[] vs : values) {
+      for (Predicate.Op op : Predicate.Op.values()) {
+        Predicate p = new Predicate(1, op, vs[1]);
+        for (Field v : vs) {
+          Tuple t = tuple(new IntField(0), v);
+          CompiledPredicate c = CompiledPredicate.compile(p, t.getTupleDesc());
+          assertEquals(v + " " + op + " " + vs[1], p.filter(t), c.filter(t));
+        }
+      }
+    }
+  }
+
+  @Test public void matchesJoinPredicate() {
+    for (Field[] vs : values) {
+      for (Predicate.Op op : Predicate.Op.values()) {
+        JoinPredicate p = new JoinPredicate(0, op, 1);
+        Tuple right = tuple(new IntField(0), vs[1]);
+        for (Field v : vs) {
+          Tuple left = tuple(v);
+          CompiledJoinPredicate c = CompiledJoinPredicate.compile(p, left.getTupleDesc(),
+                                                                  right.getTupleDesc());
+          assertEquals(v + " " + op + " " + vs[1], p.filter(left, right), c.filter(left, right));
+        }
+      }
+    }
+  }
+
+  /**
+   * A Filter over several predicates passes the tuples that satisfy all
+   * of them, by tuples and by batches
+   */
+  @Test public void conjunction() throws Exception {
+    int[] data = new int[3 * 100];
+    for (int i = 0; i < 100; i++) {
+      data[3 * i] = i;
+      data[3 * i + 1] = i % 10;
+      data[3 * i + 2] = i % 3;
+    }
+    ArrayList<Predicate> ps = new ArrayList<Predicate>(Arrays.asList(
+        new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(20)),
+        new Predicate(1, Predicate.Op.LESS_THAN, new IntField(5)),
+        new Predicate(2, Predicate.Op.EQUALS, new IntField(0))));
+    int expected = 0;
+    for (int i = 20; i < 100; i++) {
+      if (i % 10 < 5 && i % 3 == 0)
+        expected++;
+    }
+
+    Filter op = new Filter(ps, TestUtil.createTupleList(3, data));
+    assertEquals(ps, op.getPredicates());
+    op.open();
+    int n = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      for (Predicate p : ps)
+        assertEquals(true, p.filter(t));
+      n++;
+    }
+    assertEquals(expected, n);
+
+    op.rewind();
+    n = 0;
+    TupleBatch batch;
+    while ((batch = op.nextBatch()) != null)
+      n += batch.size();
+    assertEquals(expected, n);
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(CompiledPredicateTest.class);
+  }
+}
@@ -0,0 +1,103 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.HashSet;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class DistinctTest extends SimpleDbTestBase {
+
+  /**
+   * Each tuple comes out once, in order of first occurrence
+   */
+  @Test public void dropsDuplicates() throws Exception {
+    DbIterator child = TestUtil.createTupleList(2,
+        new int[] { 1, 2,
+                    3, 4,
+                    1, 2,
+                    1, 3,
+                    3, 4,
+                    5, 6 });
+    Distinct op = new Distinct(child);
+    assertEquals(child.getTupleDesc(), op.getTupleDesc());
+    DbIterator expected = TestUtil.createTupleList(2,
+        new int[] { 1, 2,
+                    3, 4,
+                    1, 3,
+                    5, 6 });
+    op.open();
+    TestUtil.compareDbIterators(expected, op);
+    assertFalse(op.hasNext());
+    op.rewind();
+    expected.rewind();
+    TestUtil.compareDbIterators(expected, op);
+    assertEquals(0, op.getSpilledTuples());
+    op.close();
+  }
+
+  /**
+   * With more distinct tuples than fit the budget, the rest are spilled
+   * and deduplicated from disk, with the same result
+   */
+  @Test public void spillsWhenOverBudget() throws Exception {
+    int rows = 30000, keys = 10000;
+    int[] data = new int[rows * 2];
+    for (int i = 0; i < rows; i++) {
+      data[2 * i] = (i * 7) % keys;
+      data[2 * i + 1] = -((i * 7) % keys);
+    }
+    Distinct op = new Distinct(TestUtil.createTupleList(2, data), 1);
+    op.open();
+    for (int pass = 0; pass < 2; pass++) {
+      HashSet<Integer> seen = new HashSet<Integer>();
+      while (op.hasNext()) {
+        Tuple t = op.next();
+        int key = ((IntField) t.getField(0)).getValue();
+        assertEquals(-key, ((IntField) t.getField(1)).getValue());
+        assertTrue(seen.add(key));
+      }
+      assertEquals(keys, seen.size());
+      assertTrue(op.getSpilledTuples() > 0);
+      op.rewind();
+    }
+    op.close();
+  }
+
+  /**
+   * SELECT DISTINCT ... ORDER BY comes out sorted even when Distinct
+   * spills, with and without a LIMIT
+   */
+  @Test public void orderedAfterSpilling() throws Exception {
+    int rows = 30000, keys = 10000;
+    int[] data = new int[rows];
+    for (int i = 0; i < rows; i++)
+      data[i] = (i * 7) % keys;
+    DbIterator plan = LogicalPlan.distinctPlan(TestUtil.createTupleList(1, data),
+        0, true, -1, 1);
+    plan.open();
+    for (int i = 0; i < keys; i++)
+      assertEquals(new IntField(i), plan.next().getField(0));
+    assertFalse(plan.hasNext());
+    plan.close();
+
+    plan = LogicalPlan.distinctPlan(TestUtil.createTupleList(1, data), 0, false, 5, 1);
+    plan.open();
+    for (int i = 0; i < 5; i++)
+      assertEquals(new IntField(keys - 1 - i), plan.next().getField(0));
+    assertFalse(plan.hasNext());
+    plan.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(DistinctTest.class);
+  }
+}
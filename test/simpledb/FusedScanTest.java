@@ -0,0 +1,177 @@
+package simpledb;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FusedScanTest extends SimpleDbTestBase {
+
+  /** @return a Project of outFields over a Filter of ps over a SeqScan */
+  private static DbIterator unfused(TransactionId tid, int tableid, List<Predicate> ps,
+                                    int[] outFields) {
+    DbIterator it = new SeqScan(tid, tableid, "t");
+    if (!ps.isEmpty())
+      it = new Filter(ps, it);
+    ArrayList<Integer> fields = new ArrayList<Integer>();
+    ArrayList<Type> types = new ArrayList<Type>();
+    for (int f : outFields) {
+      fields.add(f);
+      types.add(it.getTupleDesc().getFieldType(f));
+    }
+    return new Project(fields, types, it);
+  }
+
+  private static void compare(TransactionId tid, int tableid, List<Predicate> ps,
+                              int[] outFields) throws Exception {
+    FusedScan scan = new FusedScan(tid, tableid, "t", ps, outFields);
+    DbIterator expected = unfused(tid, tableid, ps, outFields);
+    assertEquals(expected.getTupleDesc(), scan.getTupleDesc());
+    expected.open();
+    scan.open();
+    TestUtil.compareDbIterators(expected, scan);
+    expected.rewind();
+    scan.rewind();
+    TestUtil.compareDbIterators(expected, scan);
+    scan.close();
+    expected.close();
+  }
+
+  /**
+   * The fused scan returns what a SeqScan, Filter and Project return, with
+   * and without predicates
+   */
+  @Test public void matchesUnfused() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(3, 3000, 100, null, null);
+    TransactionId tid = new TransactionId();
+    List<Predicate> ps = Arrays.asList(
+        new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(30)),
+        new Predicate(2, Predicate.Op.LESS_THAN_OR_EQ, new IntField(60)));
+    compare(tid, table.getId(), ps, new int[] { 2, 1 });
+    compare(tid, table.getId(), new ArrayList<Predicate>(), new int[] { 1 });
+    compare(tid, table.getId(), ps.subList(0, 1), new int[] { 0, 1, 2 });
+  }
+
+  /**
+   * Every type is compared and decoded from the page bytes as its Field
+   * would be; once a page changes, its tuples are read instead
+   */
+  @Test public void allTypesAndModifiedPages() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.LONG_TYPE,
+        Type.DOUBLE_TYPE, Type.STRING_TYPE });
+    File f = File.createTempFile("fused", ".dat");
+    f.deleteOnExit();
+    HeapFile table = new HeapFile(f, td);
+    Database.getCatalog().addTable(table, "fused");
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 500; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new IntField(i - 250));
+      t.setField(1, new LongField((long) i << 33));
+      t.setField(2, new DoubleField(i / 4.0));
+      t.setField(3, new StringField("s" + (i % 37), Type.STRING_LEN));
+      Database.getBufferPool().insertTuple(tid, table.getId(), t);
+    }
+    Database.getBufferPool().transactionComplete(tid);
+    Database.getBufferPool().flushAllPages();
+    Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+    tid = new TransactionId();
+    HeapPage first = (HeapPage) Database.getBufferPool().getPage(tid,
+        new HeapPageId(table.getId(), 0), Permissions.READ_ONLY);
+    assertNotNull(first.getRawData());
+    List<Predicate> ps = Arrays.asList(
+        new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(-3)),
+        new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new LongField(40L << 33)),
+        new Predicate(2, Predicate.Op.LESS_THAN, new DoubleField(100.0)),
+        new Predicate(3, Predicate.Op.LIKE, new StringField("s1", Type.STRING_LEN)));
+    for (int i = 0; i < ps.size(); i++) {
+      compare(tid, table.getId(), ps.subList(i, i + 1), new int[] { 3, 2, 1, 0 });
+    }
+    compare(tid, table.getId(), ps, new int[] { 3, 0 });
+
+    Tuple t = new Tuple(td);
+    t.setField(0, new IntField(1000));
+    t.setField(1, new LongField(Long.MAX_VALUE));
+    t.setField(2, new DoubleField(-1));
+    t.setField(3, new StringField("s1", Type.STRING_LEN));
+    Database.getBufferPool().deleteTuple(tid, first.getTuple(0));
+    Database.getBufferPool().insertTuple(tid, table.getId(), t);
+    assertNull(first.getRawData());
+    compare(tid, table.getId(), ps, new int[] { 3, 0 });
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * A tuple inserted into the page being scanned, as by an INSERT reading
+   * the scan, is read from the page's tuples, not from its stale bytes
+   */
+  @Test public void insertDuringScan() throws Exception {
+    ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+    HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10, 50, null, tuples);
+    TransactionId tid = new TransactionId();
+    FusedScan scan = new FusedScan(tid, table.getId(), "t", new ArrayList<Predicate>(), null);
+    scan.open();
+    ArrayList<ArrayList<Integer>> seen = new ArrayList<ArrayList<Integer>>();
+    for (int i = 0; i < 3; i++)
+      seen.add(SystemTestUtil.tupleToList(scan.next()));
+
+    Tuple t = new Tuple(table.getTupleDesc());
+    t.setField(0, new IntField(77));
+    t.setField(1, new IntField(77));
+    Database.getBufferPool().insertTuple(tid, table.getId(), t);
+    tuples.add(SystemTestUtil.tupleToList(t));
+    while (scan.hasNext())
+      seen.add(SystemTestUtil.tupleToList(scan.next()));
+    scan.close();
+    assertEquals(tuples, seen);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * The planner reads a filtered table with a FusedScan that keeps only
+   * the fields the rest of the query uses
+   */
+  @Test public void plannedForWhere() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(3, 300, 50, null, null, "c");
+    HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    stats.put(Database.getCatalog().getTableName(table.getId()),
+        new TableStats(table.getId(), TableStats.IOCOSTPERPAGE));
+    LogicalPlan lp = new LogicalPlan();
+    lp.addScan(table.getId(), "t");
+    lp.addFilter("t.c1", Predicate.Op.LESS_THAN, "20");
+    lp.addProjectField("t.c2", null);
+    TransactionId tid = new TransactionId();
+    DbIterator plan = lp.physicalPlan(tid, stats, false);
+
+    DbIterator scan = ((Operator) plan).getChildren()[0];
+    assertTrue(scan instanceof FusedScan);
+    assertArrayEquals(new int[] { 2 }, ((FusedScan) scan).getOutFields());
+    DbIterator expected = unfused(tid, table.getId(),
+        Arrays.asList(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(20))),
+        new int[] { 2 });
+    expected.open();
+    plan.open();
+    TestUtil.compareDbIterators(expected, plan);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(FusedScanTest.class);
+  }
+}
@@ -0,0 +1,180 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HashJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    4, 5, 6,
+                    5, 6, 7,
+                    5, 0, 0 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7,
+                    5, 6, 5, 0, 0 });
+  }
+
+  /**
+   * Unit test for HashJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    assertEquals(Utility.getTupleDesc(width1 + width2), op.getTupleDesc());
+  }
+
+  /**
+   * The shorter input is built on, and output is left ++ right either way.
+   */
+  @Test public void eqJoinBuildsSmallerSide() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    op.open();
+    assertTrue(op.buildsLeft());
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+
+    DbIterator shortRight = TestUtil.createTupleList(width2,
+        new int[] { 3, 4, 5 });
+    op = new HashJoin(pred, scan1, shortRight);
+    op.open();
+    assertFalse(op.buildsLeft());
+    DbIterator expected = TestUtil.createTupleList(width1 + width2,
+        new int[] { 3, 4, 3, 4, 5 });
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+  }
+
+  /**
+   * Unit test for HashJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, scan1, scan2);
+    op.open();
+    while (op.hasNext())
+      op.next();
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Inputs larger than the memory budget are partitioned to disk and still
+   * join correctly, including after a rewind.
+   */
+  @Test public void spillsWhenOverBudget() throws Exception {
+    int rows = 3000, keys = 700;
+    int[] left = new int[rows * 2];
+    int[] right = new int[rows * 2];
+    int[] leftCount = new int[keys];
+    int[] rightCount = new int[keys];
+    for (int i = 0; i < rows; i++) {
+      left[2 * i] = i % keys;
+      left[2 * i + 1] = i;
+      leftCount[i % keys]++;
+      right[2 * i] = (i * 3) % keys;
+      right[2 * i + 1] = -i;
+      rightCount[(i * 3) % keys]++;
+    }
+    int expected = 0;
+    for (int k = 0; k < keys; k++)
+      expected += leftCount[k] * rightCount[k];
+
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashJoin op = new HashJoin(pred, TestUtil.createTupleList(2, left),
+        TestUtil.createTupleList(2, right), 1);
+    op.open();
+    assertEquals(expected, countMatches(op));
+    assertTrue(op.getSpilledTuples() > 0);
+    op.rewind();
+    assertEquals(expected, countMatches(op));
+    op.close();
+  }
+
+  /**
+   * A small build side pushes a Bloom filter into the probe scan, through a
+   * Filter, and the scan drops most of the probe tuples itself.
+   */
+  @Test public void pushesRuntimeFilterIntoScan() throws Exception {
+    HeapFile small = SystemTestUtil.createRandomHeapFile(2, 5, 10000, null,
+        new ArrayList<ArrayList<Integer>>());
+    HeapFile big = SystemTestUtil.createRandomHeapFile(2, 2000, 10000, null,
+        new ArrayList<ArrayList<Integer>>());
+    TransactionId tid = new TransactionId();
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    Predicate all = new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0));
+
+    Join nl = new Join(pred, new SeqScan(tid, small.getId(), ""),
+        new Filter(all, new SeqScan(tid, big.getId(), "")));
+    nl.open();
+    int expected = countMatches(nl);
+    nl.close();
+
+    SeqScan probe = new SeqScan(tid, big.getId(), "");
+    HashJoin op = new HashJoin(pred, new SeqScan(tid, small.getId(), ""),
+        new Filter(all, probe));
+    op.open();
+    assertEquals(expected, countMatches(op));
+    assertTrue(probe.getFilteredTuples() > 1900);
+    op.rewind();
+    assertEquals(expected, countMatches(op));
+    op.close();
+  }
+
+  private static int countMatches(DbIterator op) throws Exception {
+    int n = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertEquals(t.getField(0), t.getField(2));
+      n++;
+    }
+    return n;
+  }
+
+  /**
+   * HashJoin only handles equality.
+   */
+  @Test(expected=IllegalArgumentException.class)
+  public void rejectsRangePredicate() {
+    new HashJoin(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0), scan1, scan2);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashJoinTest.class);
+  }
+}
@@ -0,0 +1,105 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IntHashAggregatorTest extends SimpleDbTestBase {
+
+  /** @return the (group, aggregate) results of agg, keyed by group */
+  private static HashMap<Integer, Field> results(Aggregator agg, boolean grouped)
+      throws Exception {
+    HashMap<Integer, Field> m = new HashMap<Integer, Field>();
+    DbIterator it = agg.iterator();
+    it.open();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      if (grouped)
+        m.put(((IntField) t.getField(0)).getValue(), t.getField(1));
+      else
+        m.put(0, t.getField(0));
+    }
+    it.close();
+    return m;
+  }
+
+  /**
+   * Every operator gives the same answers as IntegerAggregator, with and
+   * without grouping, over enough groups to make the table grow.
+   */
+  @Test public void matchesIntegerAggregator() throws Exception {
+    Random r = new Random(133);
+    int[] data = new int[2 * 5000];
+    for (int i = 0; i < data.length; i += 2) {
+      data[i] = r.nextInt(2000) - 1000;
+      data[i + 1] = r.nextInt(100000) - 50000;
+    }
+    Aggregator.Op[] ops = { Aggregator.Op.MIN, Aggregator.Op.MAX,
+        Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT };
+    for (Aggregator.Op op : ops) {
+      for (int gb : new int[] { 0, Aggregator.NO_GROUPING }) {
+        IntegerAggregator expected = new IntegerAggregator(gb,
+            gb == 0 ? Type.INT_TYPE : null, 1, op);
+        IntHashAggregator actual = new IntHashAggregator(gb, 1, op);
+        DbIterator tuples = TestUtil.createTupleList(2, data);
+        tuples.open();
+        while (tuples.hasNext()) {
+          Tuple t = tuples.next();
+          expected.mergeTupleIntoGroup(t);
+          actual.mergeTupleIntoGroup(t);
+        }
+        assertEquals(op + " grouped on " + gb,
+            results(expected, gb == 0), results(actual, gb == 0));
+      }
+    }
+  }
+
+  /**
+   * Merging partial aggregates of two halves of the input gives the
+   * aggregate of the whole input, for every operator.
+   */
+  @Test public void mergePartials() throws Exception {
+    Random r = new Random(134);
+    int[] data = new int[2 * 3000];
+    for (int i = 0; i < data.length; i += 2) {
+      data[i] = r.nextInt(500);
+      data[i + 1] = r.nextInt(100000) - 50000;
+    }
+    Aggregator.Op[] ops = { Aggregator.Op.MIN, Aggregator.Op.MAX,
+        Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT };
+    for (Aggregator.Op op : ops) {
+      IntHashAggregator whole = new IntHashAggregator(0, 1, op);
+      IntHashAggregator first = new IntHashAggregator(0, 1, op);
+      IntHashAggregator second = new IntHashAggregator(0, 1, op);
+      DbIterator tuples = TestUtil.createTupleList(2, data);
+      tuples.open();
+      for (int i = 0; tuples.hasNext(); i++) {
+        Tuple t = tuples.next();
+        whole.mergeTupleIntoGroup(t);
+        (i % 3 == 0 ? first : second).mergeTupleIntoGroup(t);
+      }
+      first.merge(second);
+      assertEquals(op.toString(), results(whole, true), results(first, true));
+    }
+  }
+
+  @Test public void emptyInput() throws Exception {
+    IntHashAggregator agg = new IntHashAggregator(Aggregator.NO_GROUPING, 0,
+        Aggregator.Op.COUNT);
+    assertEquals(0, agg.numGroups());
+    assertEquals(0, results(agg, false).size());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IntHashAggregatorTest.class);
+  }
+}
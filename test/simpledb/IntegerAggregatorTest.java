@@ -15,7 +15,7 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
 
   int width1 = 2;
   DbIterator scan1;
-  int[][] sum = null;
+  Object[][] sum = null;
   int[][] min = null;
   int[][] max = null;
   int[][] avg = null;
@@ -34,11 +34,11 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
                     5, 7 });
 
     // verify how the results progress after a few merges
-    this.sum = new int[][] {
-      { 1, 2 },
-      { 1, 6 },
-      { 1, 12 },
-      { 1, 12, 3, 2 }
+    this.sum = new Object[][] {
+      { 1, 2L },
+      { 1, 6L },
+      { 1, 12L },
+      { 1, 12L, 3, 2L }
     };
 
     this.min = new int[][] {
@@ -70,7 +70,7 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     scan1.open();
     IntegerAggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
     
-    for (int[] step : sum) {
+    for (Object[] step : sum) {
       agg.mergeTupleIntoGroup(scan1.next());
       DbIterator it = agg.iterator();
       it.open();
@@ -178,6 +178,36 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * SUM and the AVG numerator are accumulated in 64 bits, so groups whose
+   * total exceeds Integer.MAX_VALUE come out exact
+   */
+  @Test public void sumDoesNotOverflow() throws Exception {
+    int[] data = new int[] { 1, Integer.MAX_VALUE,
+                             1, Integer.MAX_VALUE,
+                             1, Integer.MAX_VALUE };
+    long total = 3L * Integer.MAX_VALUE;
+    Aggregator[] aggs = {
+        new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM),
+        new IntHashAggregator(0, 1, Aggregator.Op.SUM) };
+    for (Aggregator agg : aggs) {
+      DbIterator scan = TestUtil.createTupleList(width1, data);
+      while (scan.hasNext())
+        agg.mergeTupleIntoGroup(scan.next());
+      DbIterator it = agg.iterator();
+      it.open();
+      TestUtil.matchAllTuples(TestUtil.createTupleList(width1, new Object[] { 1, total }), it);
+    }
+
+    IntegerAggregator avg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.AVG);
+    DbIterator scan = TestUtil.createTupleList(width1, data);
+    while (scan.hasNext())
+      avg.mergeTupleIntoGroup(scan.next());
+    DbIterator it = avg.iterator();
+    it.open();
+    TestUtil.matchAllTuples(TestUtil.createTupleList(width1, new int[] { 1, Integer.MAX_VALUE }), it);
+  }
+
   /**
    * JUnit suite target
    */
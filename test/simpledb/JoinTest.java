@@ -5,6 +5,8 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
+import java.util.Vector;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -105,6 +107,55 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * An outer relation spanning several blocks joins fully.
+   */
+  @Test public void multiBlockJoin() throws Exception {
+    int rows = 1200;
+    int[] outer = new int[rows * width1];
+    for (int i = 0; i < rows; i++) {
+      outer[i * width1] = i % 10;
+      outer[i * width1 + 1] = i;
+    }
+    TupleIterator outerScan = TestUtil.createTupleList(width1, outer);
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    // one page of two-int tuples is a 512 tuple block
+    Join op = new Join(pred, outerScan, scan2, 1);
+    op.open();
+    int n = 0;
+    while (op.hasNext()) {
+      op.next();
+      n++;
+    }
+    // keys 1..5 of scan2 each match rows / 10 outer tuples
+    assertEquals(5 * rows / 10, n);
+  }
+
+  /**
+   * A closed join can be rewound and reopened.
+   */
+  @Test public void rewindAfterClose() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    Join op = new Join(pred, scan1, scan2);
+    op.open();
+    op.close();
+    op.rewind();
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * The optimizer charges a nested-loops join one scan of the inner per
+   * block of outer tuples, not per outer tuple.
+   */
+  @Test public void blockCost() {
+    LogicalJoinNode lj = new LogicalJoinNode("a", "b", "x", "y", Predicate.Op.NOT_EQUALS);
+    JoinOptimizer jo = new JoinOptimizer(null, new Vector<LogicalJoinNode>());
+    double blocks = Math.ceil(1000.0 / Join.DEFAULT_BLOCK_PAGES);
+    assertEquals(5 + blocks * 20 + 1000 * 10, jo.estimateJoinCost(lj, 1000, 10, 5, 20), 1e-9);
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,93 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class OrderByTest extends SimpleDbTestBase {
+
+  /**
+   * Check that op returns rows tuples ordered on field 0, with ties in
+   * increasing order of field 1 (the input order).
+   */
+  private static void checkSorted(DbIterator op, int rows, boolean asc) throws Exception {
+    int n = 0;
+    Tuple prev = null;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      if (prev != null) {
+        int a = ((IntField) prev.getField(0)).getValue();
+        int b = ((IntField) t.getField(0)).getValue();
+        assertTrue(asc ? a <= b : a >= b);
+        if (a == b)
+          assertTrue(((IntField) prev.getField(1)).getValue()
+                     < ((IntField) t.getField(1)).getValue());
+      }
+      prev = t;
+      n++;
+    }
+    assertEquals(rows, n);
+  }
+
+  private static int[] input(int rows, int keys) {
+    int[] data = new int[rows * 2];
+    for (int i = 0; i < rows; i++) {
+      data[2 * i] = (i * 7919) % keys;
+      data[2 * i + 1] = i;
+    }
+    return data;
+  }
+
+  @Test public void sortsInMemory() throws Exception {
+    OrderBy op = new OrderBy(0, false, TestUtil.createTupleList(2, input(500, 50)));
+    op.open();
+    checkSorted(op, 500, false);
+    assertEquals(0, op.getRunsWritten());
+    op.rewind();
+    checkSorted(op, 500, false);
+    op.close();
+
+    // reopening must not duplicate tuples
+    op.open();
+    checkSorted(op, 500, false);
+    op.close();
+  }
+
+  /**
+   * With a one-page budget the input is sorted in runs on disk, which take
+   * more than one merge pass to combine.
+   */
+  @Test public void sortsExternally() throws Exception {
+    int perPage = BufferPool.getPageSize() / Utility.getTupleDesc(2).getSize();
+    int rows = perPage * (OrderBy.MAX_FAN_IN + 10);
+    OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(2, input(rows, 1000)), 1);
+    op.open();
+    checkSorted(op, rows, true);
+    assertTrue(op.getRunsWritten() > OrderBy.MAX_FAN_IN);
+    op.rewind();
+    checkSorted(op, rows, true);
+    op.close();
+    op.open();
+    checkSorted(op, rows, true);
+    op.close();
+  }
+
+  @Test public void emptyInput() throws Exception {
+    OrderBy op = new OrderBy(0, true, TestUtil.createTupleList(2, new int[0]), 1);
+    op.open();
+    assertFalse(op.hasNext());
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(OrderByTest.class);
+  }
+}
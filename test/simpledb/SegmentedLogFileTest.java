@@ -0,0 +1,146 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SegmentedLogFileTest extends SimpleDbTestBase {
+
+    File f;
+    SegmentedLogFile log;
+
+    @Before public void createLog() throws Exception {
+        f = File.createTempFile("seglog", "");
+        f.deleteOnExit();
+        log = new SegmentedLogFile(f);
+        log.reset();
+    }
+
+    @After public void removeLog() throws Exception {
+        log.close();
+        for (int i = 0; i < 4; i++)
+            new File(f.getPath() + "." + i).delete();
+        f.delete();
+    }
+
+    /**
+     * Values written across a segment boundary read back intact.
+     */
+    @Test public void readWriteAcrossSegments() throws Exception {
+        log.seek(SegmentedLogFile.SEGMENT_SIZE - 6);
+        log.writeLong(0x0102030405060708L);
+        log.writeUTF("spans");
+        log.writeInt(42);
+        log.force();
+
+        log.seek(SegmentedLogFile.SEGMENT_SIZE - 6);
+        assertEquals(0x0102030405060708L, log.readLong());
+        assertEquals("spans", log.readUTF());
+        assertEquals(42, log.readInt());
+        assertEquals(log.length(), log.getFilePointer());
+    }
+
+    /**
+     * Writing into a segment preallocates the next one in the background,
+     * so crossing into it finds it ready and starts on the one after.
+     */
+    @Test public void preallocatesNextSegment() throws Exception {
+        log.writeInt(1);
+        log.awaitPreallocation();
+        File next = new File(f.getPath() + ".1");
+        assertTrue(next.exists());
+        assertEquals(SegmentedLogFile.SEGMENT_SIZE, next.length());
+
+        log.seek(SegmentedLogFile.SEGMENT_SIZE - 2);
+        log.writeInt(2);
+        log.awaitPreallocation();
+        assertEquals(SegmentedLogFile.SEGMENT_SIZE, next.length());
+        assertEquals(SegmentedLogFile.SEGMENT_SIZE, new File(f.getPath() + ".2").length());
+        log.seek(SegmentedLogFile.SEGMENT_SIZE - 2);
+        assertEquals(2, log.readInt());
+    }
+
+    /**
+     * Truncation drops only whole segments and keeps offsets stable.
+     */
+    @Test public void truncateDropsWholeSegments() throws Exception {
+        long second = SegmentedLogFile.SEGMENT_SIZE + 16;
+        log.writeLong(6);
+        log.seek(second);
+        log.writeLong(7);
+        log.writeLong(8);
+
+        assertEquals(1, log.truncateBefore(second));
+        assertFalse(new File(f.getPath() + ".0").exists());
+        assertEquals(SegmentedLogFile.SEGMENT_SIZE, log.getStartOffset());
+
+        log.seek(second);
+        assertEquals(7, log.readLong());
+        assertEquals(8, log.readLong());
+        assertEquals(0, log.truncateBefore(second));
+    }
+
+    /**
+     * The checkpoint pointer and start offset survive reopening.
+     */
+    @Test public void headerSurvivesReopen() throws Exception {
+        log.seek(2L * SegmentedLogFile.SEGMENT_SIZE);
+        log.writeInt(5);
+        log.setCheckpoint(2L * SegmentedLogFile.SEGMENT_SIZE);
+        log.truncateBefore(2L * SegmentedLogFile.SEGMENT_SIZE);
+        log.close();
+
+        log = new SegmentedLogFile(f);
+        assertEquals(2L * SegmentedLogFile.SEGMENT_SIZE, log.getCheckpoint());
+        assertEquals(2L * SegmentedLogFile.SEGMENT_SIZE, log.getStartOffset());
+        log.seek(log.getCheckpoint());
+        assertEquals(5, log.readInt());
+    }
+
+    /**
+     * Records forced after the header was last written are still in the
+     * log when it is reopened without being closed, as after a crash.
+     */
+    @Test public void forcedRecordsSurviveCrash() throws Exception {
+        long start = log.getFilePointer();
+        log.writeInt(LogFile.BEGIN_RECORD);
+        log.writeLong(12);
+        log.writeLong(start);
+        long commit = log.getFilePointer();
+        log.writeInt(LogFile.COMMIT_RECORD);
+        log.writeLong(12);
+        log.writeLong(commit);
+        long end = log.getFilePointer();
+        // half a record, as if the crash came in the middle of a write
+        log.writeInt(LogFile.ABORT_RECORD);
+        log.force();
+
+        SegmentedLogFile reopened = new SegmentedLogFile(f);
+        try {
+            assertEquals(end, reopened.length());
+            reopened.seek(commit);
+            assertEquals(LogFile.COMMIT_RECORD, reopened.readInt());
+            assertEquals(12, reopened.readLong());
+            assertEquals(commit, reopened.readLong());
+        } finally {
+            reopened.close();
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SegmentedLogFileTest.class);
+    }
+}
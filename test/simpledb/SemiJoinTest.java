@@ -0,0 +1,75 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SemiJoinTest extends SimpleDbTestBase {
+
+  int[] outer = new int[] { 1, 10,
+                            2, 20,
+                            3, 30,
+                            4, 40 };
+  // 2 appears twice, which must not duplicate outer rows
+  int[] inner = new int[] { 2, 3, 2, 5 };
+
+  /**
+   * Run a (semi or anti) join of outer with inner and return the second
+   * field of every output tuple, in order.
+   */
+  private String run(Predicate.Op op, boolean anti, int[] innerData) throws Exception {
+    SemiJoin sj = new SemiJoin(new JoinPredicate(0, op, 0),
+        TestUtil.createTupleList(2, outer), TestUtil.createTupleList(1, innerData), anti);
+    assertEquals(Utility.getTupleDesc(2), sj.getTupleDesc());
+    sj.open();
+    String result = drain(sj);
+    sj.rewind();
+    assertEquals(result, drain(sj));
+    sj.close();
+    return result;
+  }
+
+  private static String drain(DbIterator it) throws Exception {
+    StringBuilder sb = new StringBuilder();
+    while (it.hasNext())
+      sb.append(((IntField) it.next().getField(1)).getValue()).append(' ');
+    return sb.toString().trim();
+  }
+
+  @Test public void in() throws Exception {
+    assertEquals("20 30", run(Predicate.Op.EQUALS, false, inner));
+  }
+
+  @Test public void notIn() throws Exception {
+    assertEquals("10 40", run(Predicate.Op.EQUALS, true, inner));
+  }
+
+  @Test public void rangeOperators() throws Exception {
+    // outer < some inner value: compares with the maximum, 5
+    assertEquals("10 20 30 40", run(Predicate.Op.LESS_THAN, false, inner));
+    // outer > some inner value: compares with the minimum, 2
+    assertEquals("30 40", run(Predicate.Op.GREATER_THAN, false, inner));
+    assertEquals("20 30 40", run(Predicate.Op.GREATER_THAN_OR_EQ, false, inner));
+    assertEquals("10", run(Predicate.Op.GREATER_THAN_OR_EQ, true, inner));
+  }
+
+  @Test public void notEquals() throws Exception {
+    assertEquals("10 30 40", run(Predicate.Op.NOT_EQUALS, false, new int[] { 2, 2 }));
+    assertEquals("10 20 30 40", run(Predicate.Op.NOT_EQUALS, false, inner));
+  }
+
+  @Test public void emptyInner() throws Exception {
+    assertEquals("", run(Predicate.Op.EQUALS, false, new int[0]));
+    assertEquals("10 20 30 40", run(Predicate.Op.EQUALS, true, new int[0]));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SemiJoinTest.class);
+  }
+}
@@ -0,0 +1,88 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  int[] data1;
+  int[] data2;
+
+  /**
+   * Initialize each unit test with unsorted inputs containing duplicates
+   */
+  @Before public void createTupleLists() throws Exception {
+    Random r = new Random(32);
+    data1 = new int[40 * width1];
+    for (int i = 0; i < data1.length; i++)
+      data1[i] = r.nextInt(10);
+    data2 = new int[30 * width2];
+    for (int i = 0; i < data2.length; i++)
+      data2[i] = r.nextInt(10);
+  }
+
+  private void checkAgainstNestedLoops(Predicate.Op op) throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, op, 1);
+    Join expected = new Join(pred, TestUtil.createTupleList(width1, data1),
+        TestUtil.createTupleList(width2, data2));
+    SortMergeJoin actual = new SortMergeJoin(pred, TestUtil.createTupleList(width1, data1),
+        TestUtil.createTupleList(width2, data2));
+    assertEquals(expected.getTupleDesc(), actual.getTupleDesc());
+    expected.open();
+    actual.open();
+    TestUtil.matchAllTuples(expected, actual);
+    actual.rewind();
+    TestUtil.matchAllTuples(expected, actual);
+  }
+
+  @Test public void eqJoin() throws Exception {
+    checkAgainstNestedLoops(Predicate.Op.EQUALS);
+  }
+
+  @Test public void ltJoin() throws Exception {
+    checkAgainstNestedLoops(Predicate.Op.LESS_THAN);
+  }
+
+  @Test public void leJoin() throws Exception {
+    checkAgainstNestedLoops(Predicate.Op.LESS_THAN_OR_EQ);
+  }
+
+  @Test public void gtJoin() throws Exception {
+    checkAgainstNestedLoops(Predicate.Op.GREATER_THAN);
+  }
+
+  @Test public void geJoin() throws Exception {
+    checkAgainstNestedLoops(Predicate.Op.GREATER_THAN_OR_EQ);
+  }
+
+  @Test public void neJoin() throws Exception {
+    checkAgainstNestedLoops(Predicate.Op.NOT_EQUALS);
+  }
+
+  /**
+   * A child already sorted on its join key is not sorted again.
+   */
+  @Test public void reusesSortedChild() throws Exception {
+    OrderBy sorted = new OrderBy(0, true, TestUtil.createTupleList(width1, data1));
+    assertSame(sorted, SortMergeJoin.sortedOn(sorted, 0));
+    assertNotSame(sorted, SortMergeJoin.sortedOn(sorted, 1));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
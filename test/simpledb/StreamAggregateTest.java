@@ -0,0 +1,127 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class StreamAggregateTest extends SimpleDbTestBase {
+
+  // grouped on field 0, not sorted within groups
+  int[] grouped = new int[] { 3, 5,
+                              3, 1,
+                              3, 9,
+                              1, 4,
+                              7, 2,
+                              7, 6 };
+
+  Aggregator.Op[] ops = { Aggregator.Op.COUNT, Aggregator.Op.SUM,
+      Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.AVG };
+
+  @Test public void groups() throws Exception {
+    StreamAggregate op = new StreamAggregate(TestUtil.createTupleList(2, grouped),
+        new int[] { 1, 1, 1, 1, 1 }, new int[] { 0 }, ops);
+    DbIterator expected = TestUtil.createTupleList(6,
+        new Object[] { 3, 3, 15L, 1, 9, 5,
+                       1, 1, 4L, 4, 4, 4,
+                       7, 2, 8L, 2, 6, 4 });
+    assertEquals(expected.getTupleDesc(), op.getTupleDesc());
+    op.open();
+    expected.open();
+    TestUtil.compareDbIterators(expected, op);
+    op.rewind();
+    expected.rewind();
+    TestUtil.compareDbIterators(expected, op);
+    op.close();
+  }
+
+  @Test public void noGrouping() throws Exception {
+    StreamAggregate op = new StreamAggregate(TestUtil.createTupleList(2, grouped),
+        new int[] { 1 }, new int[0], new Aggregator.Op[] { Aggregator.Op.SUM });
+    op.open();
+    assertTrue(op.hasNext());
+    assertEquals(new LongField(27), op.next().getField(0));
+    assertFalse(op.hasNext());
+
+    op = new StreamAggregate(TestUtil.createTupleList(2, new int[0]),
+        new int[] { 1 }, new int[0], new Aggregator.Op[] { Aggregator.Op.SUM });
+    op.open();
+    assertFalse(op.hasNext());
+  }
+
+  /**
+   * The planner only streams over input known to be ordered on the
+   * grouping field: the left join field of a sort-merge join.
+   */
+  @Test public void orderingDetection() throws Exception {
+    DbIterator scan = TestUtil.createTupleList(2, grouped);
+    assertFalse(LogicalPlan.isOrderedOn(scan, 0));
+    SortMergeJoin smj = new SortMergeJoin(new JoinPredicate(0, Predicate.Op.LESS_THAN, 1),
+        TestUtil.createTupleList(2, grouped), TestUtil.createTupleList(2, grouped));
+    assertTrue(LogicalPlan.isOrderedOn(smj, 0));
+    assertFalse(LogicalPlan.isOrderedOn(smj, 1));
+    assertFalse(LogicalPlan.isOrderedOn(smj, 3));
+  }
+
+  /**
+   * A GROUP BY on the left field of a range join is planned as a
+   * StreamAggregate over the SortMergeJoin, and gives the same groups as
+   * an Aggregate.
+   */
+  @Test public void plannedOverRangeJoin() throws Exception {
+    HeapFile a = SystemTestUtil.createRandomHeapFile(2, 200, 20, null, null, "a");
+    HeapFile b = SystemTestUtil.createRandomHeapFile(2, 200, 20, null, null, "b");
+    HashMap<String, TableStats> stats = new HashMap<String, TableStats>();
+    for (HeapFile f : new HeapFile[] { a, b })
+      stats.put(Database.getCatalog().getTableName(f.getId()),
+          new TableStats(f.getId(), TableStats.IOCOSTPERPAGE));
+    LogicalPlan lp = new LogicalPlan();
+    lp.addScan(a.getId(), "x");
+    lp.addScan(b.getId(), "y");
+    lp.addJoin("x.a0", "y.b0", Predicate.Op.LESS_THAN);
+    lp.addProjectField("x.a0", null);
+    lp.addProjectField("y.b1", "SUM");
+    lp.addAggregate("SUM", "y.b1", "x.a0");
+    TransactionId tid = new TransactionId();
+    DbIterator plan = lp.physicalPlan(tid, stats, false);
+
+    DbIterator agg = ((Operator) plan).getChildren()[0];
+    assertTrue(agg instanceof StreamAggregate);
+    DbIterator join = ((Operator) agg).getChildren()[0];
+    assertTrue(join instanceof SortMergeJoin);
+    Aggregate expected = new Aggregate(join, new int[] { 2 }, new int[] { 0 },
+        new Aggregator.Op[] { Aggregator.Op.SUM });
+    HashSet<List<Field>> want = new HashSet<List<Field>>();
+    expected.open();
+    while (expected.hasNext()) {
+      Tuple t = expected.next();
+      want.add(Arrays.asList(t.getField(0), t.getField(1)));
+    }
+    expected.close();
+    HashSet<List<Field>> got = new HashSet<List<Field>>();
+    plan.open();
+    while (plan.hasNext()) {
+      Tuple t = plan.next();
+      got.add(Arrays.asList(t.getField(0), t.getField(1)));
+    }
+    assertFalse(want.isEmpty());
+    assertEquals(want, got);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(StreamAggregateTest.class);
+  }
+}
@@ -0,0 +1,112 @@
+package simpledb;
+
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SymmetricHashJoinTest extends SimpleDbTestBase {
+
+  int width1 = 2;
+  int width2 = 3;
+  DbIterator scan1;
+  DbIterator scan2;
+  DbIterator eqJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    4, 5, 6,
+                    5, 6, 7,
+                    5, 0, 0 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7,
+                    5, 6, 5, 0, 0 });
+  }
+
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SymmetricHashJoin op = new SymmetricHashJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+    op.rewind();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * A TupleIterator that counts the tuples read from it.
+   */
+  static class CountingIterator extends TupleIterator {
+    private static final long serialVersionUID = 1L;
+    int read;
+
+    CountingIterator(TupleDesc td, Iterable<Tuple> tuples) {
+      super(td, tuples);
+    }
+
+    public Tuple next() {
+      read++;
+      return super.next();
+    }
+  }
+
+  /**
+   * The first match comes out as soon as both of its tuples are read.
+   */
+  @Test public void firstResultIsPipelined() throws Exception {
+    TupleDesc td = Utility.getTupleDesc(1);
+    ArrayList<Tuple> left = new ArrayList<Tuple>();
+    ArrayList<Tuple> right = new ArrayList<Tuple>();
+    for (int i = 0; i < 1000; i++) {
+      left.add(Utility.getHeapTuple(i, 1));
+      right.add(Utility.getHeapTuple(i, 1));
+    }
+    CountingIterator c1 = new CountingIterator(td, left);
+    CountingIterator c2 = new CountingIterator(td, right);
+    SymmetricHashJoin op = new SymmetricHashJoin(
+        new JoinPredicate(0, Predicate.Op.EQUALS, 0), c1, c2);
+    op.open();
+    assertTrue(op.hasNext());
+    op.next();
+    assertTrue(c1.read + c2.read <= 2);
+  }
+
+  /**
+   * Only a plan that asks for pipelining gets a SymmetricHashJoin.
+   */
+  @Test public void plannedWhenPipelined() throws Exception {
+    LogicalJoinNode lj = new LogicalJoinNode("x", "y", "a0", "b0", Predicate.Op.EQUALS);
+    lj.f1QuantifiedName = "a0";
+    lj.f2QuantifiedName = "b0";
+    DbIterator a = new TupleIterator(Utility.getTupleDesc(2, "a"), new ArrayList<Tuple>());
+    DbIterator b = new TupleIterator(Utility.getTupleDesc(2, "b"), new ArrayList<Tuple>());
+    assertTrue(JoinOptimizer.instantiateJoin(lj, a, b, true) instanceof SymmetricHashJoin);
+    assertTrue(JoinOptimizer.instantiateJoin(lj, a, b, false) instanceof HashJoin);
+    assertTrue(JoinOptimizer.instantiateJoin(lj, a, b) instanceof HashJoin);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SymmetricHashJoinTest.class);
+  }
+}
@@ -0,0 +1,98 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TopNTest extends SimpleDbTestBase {
+
+  // key, input position
+  int[] data = new int[] { 5, 0,
+                           3, 1,
+                           9, 2,
+                           3, 3,
+                           1, 4,
+                           7, 5,
+                           3, 6 };
+
+  /** @return "key/position" of each tuple of op, in order */
+  private static String drain(DbIterator op) throws Exception {
+    StringBuilder sb = new StringBuilder();
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      sb.append(((IntField) t.getField(0)).getValue()).append('/')
+        .append(((IntField) t.getField(1)).getValue()).append(' ');
+    }
+    return sb.toString().trim();
+  }
+
+  @Test public void ascending() throws Exception {
+    TopN op = new TopN(0, true, 3, TestUtil.createTupleList(2, data));
+    op.open();
+    // ties on 3 keep input order
+    assertEquals("1/4 3/1 3/3", drain(op));
+    op.rewind();
+    assertEquals("1/4 3/1 3/3", drain(op));
+    op.close();
+  }
+
+  @Test public void descending() throws Exception {
+    TopN op = new TopN(0, false, 2, TestUtil.createTupleList(2, data));
+    op.open();
+    assertEquals("9/2 7/5", drain(op));
+    op.close();
+  }
+
+  /**
+   * TopN agrees with a full sort whatever the limit.
+   */
+  @Test public void matchesOrderBy() throws Exception {
+    for (int n = 0; n <= 8; n++) {
+      OrderBy sorted = new OrderBy(0, true, TestUtil.createTupleList(2, data));
+      sorted.open();
+      Limit expected = new Limit(n, sorted);
+      expected.open();
+      TopN op = new TopN(0, true, n, TestUtil.createTupleList(2, data));
+      op.open();
+      assertEquals(drain(expected), drain(op));
+    }
+  }
+
+  @Test public void limit() throws Exception {
+    Limit op = new Limit(2, TestUtil.createTupleList(2, data));
+    op.open();
+    assertEquals("5/0 3/1", drain(op));
+    op.rewind();
+    assertEquals("5/0 3/1", drain(op));
+    op.close();
+  }
+
+  @Test public void parserStripsLimit() throws Exception {
+    Parser p = new Parser();
+    assertEquals("SELECT a FROM t ORDER BY a;",
+        p.stripLimit("SELECT a FROM t ORDER BY a\n limit 50 ;"));
+    assertEquals("SELECT a FROM t", p.stripLimit("SELECT a FROM t LIMIT 0"));
+    assertEquals("SELECT a FROM t;", p.stripLimit("SELECT a FROM t;"));
+    assertEquals("DELETE FROM t;", p.stripLimit("DELETE FROM t;"));
+  }
+
+  @Test(expected = ParsingException.class)
+  public void limitOnDelete() throws Exception {
+    new Parser().stripLimit("DELETE FROM t WHERE t.a > 1 LIMIT 5");
+  }
+
+  @Test(expected = ParsingException.class)
+  public void limitOnInsert() throws Exception {
+    new Parser().stripLimit("INSERT INTO t SELECT * FROM u LIMIT 5;");
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TopNTest.class);
+  }
+}
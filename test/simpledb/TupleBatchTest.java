@@ -0,0 +1,140 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TupleBatchTest extends SimpleDbTestBase {
+
+  /** @return every tuple of it, read a batch at a time */
+  private static ArrayList<Tuple> readBatches(DbIterator it) throws Exception {
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    TupleBatch batch;
+    while ((batch = TupleBatch.nextBatch(it)) != null) {
+      assertTrue(batch.size() > 0 && batch.size() <= TupleBatch.DEFAULT_SIZE);
+      for (int i = 0; i < batch.size(); i++)
+        tuples.add(batch.getTuple(i));
+    }
+    return tuples;
+  }
+
+  private static ArrayList<Tuple> readTuples(DbIterator it) throws Exception {
+    ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+    while (it.hasNext())
+      tuples.add(it.next());
+    return tuples;
+  }
+
+  private static void assertSameTuples(ArrayList<Tuple> expected, ArrayList<Tuple> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++)
+      assertTrue(TestUtil.compareTuples(expected.get(i), actual.get(i)));
+  }
+
+  /**
+   * Rows are added column by column and narrowed by a selection vector
+   * and a projection without copying
+   */
+  @Test public void selectAndProject() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    TupleBatch batch = TupleBatch.nextBatch(TestUtil.createTupleList(2,
+        new Object[] { 1, "a", 2, "b", 3, "c", 4, "d" }));
+    assertEquals(td, batch.getTupleDesc());
+    assertEquals(4, batch.size());
+    assertEquals(3, batch.intColumn(0)[2]);
+
+    batch.select(new int[] { 1, 3 }, 2);
+    assertEquals(2, batch.size());
+    assertEquals(new StringField("d", Type.STRING_LEN), batch.getTuple(1).getField(1));
+
+    TupleBatch projected = batch.project(new int[] { 1, 0 },
+        new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE }));
+    assertEquals(2, projected.size());
+    assertEquals(new IntField(2), projected.getTuple(0).getField(1));
+    assertEquals(new StringField("b", Type.STRING_LEN), projected.getTuple(0).getField(0));
+  }
+
+  /**
+   * Every predicate operator selects the same rows from a batch as from
+   * tuples
+   */
+  @Test public void predicateOnBatch() throws Exception {
+    int[] data = new int[40];
+    for (int i = 0; i < data.length; i++)
+      data[i] = i % 7;
+    for (Predicate.Op op : Predicate.Op.values()) {
+      Predicate p = new Predicate(0, op, new IntField(3));
+      TupleBatch batch = TupleBatch.nextBatch(TestUtil.createTupleList(1, data));
+      int[] sel = new int[batch.size()];
+      int n = p.filter(batch, sel);
+      ArrayList<Integer> expected = new ArrayList<Integer>();
+      for (int i = 0; i < data.length; i++) {
+        if (p.filter(batch.getTuple(i)))
+          expected.add(i);
+      }
+      assertEquals(op.toString(), expected.size(), n);
+      for (int i = 0; i < n; i++)
+        assertEquals((int) expected.get(i), sel[i]);
+    }
+  }
+
+  /**
+   * A scan, filter and projection over a table produce the same tuples
+   * whether read by batches or by tuples, across batch boundaries
+   */
+  @Test public void scanFilterProject() throws Exception {
+    HeapFile table = SystemTestUtil.createRandomHeapFile(3, 5000, 100, null, null);
+    TransactionId tid = new TransactionId();
+    ArrayList<Tuple> tuples = readTuples(scanFilterProject(tid, table));
+    Project batched = scanFilterProject(tid, table);
+    ArrayList<Tuple> batches = readBatches(batched);
+    assertNull(batched.nextBatch());
+    assertTrue(tuples.size() > TupleBatch.DEFAULT_SIZE);
+    assertSameTuples(tuples, batches);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  private static Project scanFilterProject(TransactionId tid, HeapFile table) throws Exception {
+    Filter filter = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(40)),
+                               new SeqScan(tid, table.getId(), ""));
+    Project project = new Project(new ArrayList<Integer>(Arrays.asList(2, 0)),
+        new Type[] { Type.INT_TYPE, Type.INT_TYPE }, filter);
+    project.open();
+    return project;
+  }
+
+  /**
+   * Operators without a batch implementation, and plain DbIterators, are
+   * adapted by collecting their tuples
+   */
+  @Test public void adaptsTupleIterators() throws Exception {
+    int[] data = new int[2 * 3000];
+    for (int i = 0; i < data.length; i++)
+      data[i] = i / 2;
+    DbIterator list = TestUtil.createTupleList(2, data);
+    ArrayList<Tuple> expected = readTuples(list);
+    list.rewind();
+    assertSameTuples(expected, readBatches(list));
+
+    Limit limit = new Limit(2500, TestUtil.createTupleList(2, data));
+    limit.open();
+    ArrayList<Tuple> limited = readBatches(limit);
+    assertSameTuples(new ArrayList<Tuple>(expected.subList(0, 2500)), limited);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TupleBatchTest.class);
+  }
+}
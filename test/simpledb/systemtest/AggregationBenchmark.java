@@ -0,0 +1,78 @@
+package simpledb.systemtest;
+
+import java.util.Random;
+import simpledb.*;
+
+/**
+ * Compares IntHashAggregator with IntegerAggregator on grouped SUM over
+ * random (group, value) tuples, for a small and a large number of groups.
+ * Tuples are generated on the fly so both aggregators see the same
+ * allocation cost for the input; the time reported is for merging all the
+ * tuples and iterating over the results.
+ * <p>
+ * It then times a grouped SUM over a HeapFile of the same number of rows
+ * with Aggregate's parallel mode at 1, 2, 4 and 8 threads.
+ * <p>
+ * Usage: java simpledb.systemtest.AggregationBenchmark [rows]
+ */
+public class AggregationBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 10000000;
+        System.out.println("groups\taggregator\tms\tgroups out");
+        for (int groups : new int[] {1000, 1000000}) {
+            for (int round = 0; round < 2; round++) {
+                // the first round warms up the JIT
+                for (boolean primitive : new boolean[] {false, true}) {
+                    Aggregator agg = primitive
+                        ? new IntHashAggregator(0, 1, Aggregator.Op.SUM)
+                        : new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+                    long start = System.nanoTime();
+                    int out = run(agg, rows, groups);
+                    long ms = (System.nanoTime() - start) / 1000000;
+                    if (round == 1)
+                        System.out.println(groups + "\t" + agg.getClass().getSimpleName()
+                                           + "\t" + ms + "\t" + out);
+                }
+            }
+        }
+
+        System.out.println("threads\tms");
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, rows, 1000, null, null);
+        // the buffer pool does not evict, so make room for the whole table
+        Database.resetBufferPool(table.numPages() + BufferPool.DEFAULT_PAGES);
+        for (int threads : new int[] {1, 1, 2, 4, 8}) {
+            TransactionId tid = new TransactionId();
+            Aggregate agg = new Aggregate(new SeqScan(tid, table.getId(), ""), 1, 0,
+                                          Aggregator.Op.SUM);
+            agg.setParallelism(threads);
+            long start = System.nanoTime();
+            agg.open();
+            while (agg.hasNext())
+                agg.next();
+            agg.close();
+            Database.getBufferPool().transactionComplete(tid);
+            System.out.println(threads + "\t" + (System.nanoTime() - start) / 1000000);
+        }
+    }
+
+    private static int run(Aggregator agg, int rows, int groups) throws Exception {
+        TupleDesc td = Utility.getTupleDesc(2);
+        Random r = new Random(0);
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(r.nextInt(groups)));
+            t.setField(1, new IntField(r.nextInt(1000)));
+            agg.mergeTupleIntoGroup(t);
+        }
+        DbIterator it = agg.iterator();
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+}
@@ -0,0 +1,139 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import simpledb.*;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class IndexJoinTest extends SimpleDbTestBase {
+
+    private static int count(DbIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    /**
+     * Index lookups find the same matches as a hash join, including tuples
+     * inserted after the index was built, and not deleted ones.
+     */
+    @Test public void matchesHashJoin() throws Exception {
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(2, 300, 50, null,
+                new ArrayList<ArrayList<Integer>>(), "a");
+        HeapFile inner = SystemTestUtil.createRandomHeapFile(2, 1000, 50, null,
+                new ArrayList<ArrayList<Integer>>(), "b");
+        HashIndex index = Database.getCatalog().addIndex(inner.getId(), "b0");
+        assertSame(index, Database.getCatalog().getIndex(inner.getId(), 0));
+
+        TransactionId tid = new TransactionId();
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        int expected = count(new HashJoin(pred, new SeqScan(tid, outer.getId(), ""),
+                new SeqScan(tid, inner.getId(), "")));
+        IndexNestedLoopJoin inlj = new IndexNestedLoopJoin(pred,
+                new SeqScan(tid, outer.getId(), ""), new SeqScan(tid, inner.getId(), ""), index);
+        assertEquals(expected, count(inlj));
+
+        // insert a tuple matching every outer key and delete one existing
+        // inner tuple; the index must follow both
+        Tuple extra = new Tuple(inner.getTupleDesc());
+        extra.setField(0, new IntField(7));
+        extra.setField(1, new IntField(-1));
+        Database.getBufferPool().insertTuple(tid, inner.getId(), extra);
+        DbFileIterator it = inner.iterator(tid);
+        it.open();
+        assertTrue(it.hasNext());
+        Tuple victim = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, victim);
+
+        expected = count(new HashJoin(pred, new SeqScan(tid, outer.getId(), ""),
+                new SeqScan(tid, inner.getId(), "")));
+        assertEquals(expected, count(inlj));
+    }
+
+    /**
+     * An index first used by a snapshot transaction still holds the tuples
+     * committed after that snapshot was taken.
+     */
+    @Test public void buildIgnoresCallerSnapshot() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 100, 50, null,
+                new ArrayList<ArrayList<Integer>>(), "c");
+        Transaction reader = new Transaction(true);
+        reader.start();
+
+        Transaction writer = new Transaction();
+        writer.start();
+        Tuple t = new Tuple(table.getTupleDesc());
+        t.setField(0, new IntField(1000));
+        t.setField(1, new IntField(1));
+        Database.getBufferPool().insertTuple(writer.getId(), table.getId(), t);
+        writer.commit();
+
+        // the first lookup builds the index
+        HashIndex index = Database.getCatalog().addIndex(table.getId(), "c0");
+        assertEquals(0, index.lookup(reader.getId(), new IntField(1000)).size());
+        reader.commit();
+        assertEquals(1, index.lookup(new TransactionId(), new IntField(1000)).size());
+    }
+
+    /**
+     * instantiateJoin uses the index when the inner is a bare scan of an
+     * indexed table.
+     */
+    @Test public void plannerUsesIndex() throws Exception {
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(2, 10, null,
+                new ArrayList<ArrayList<Integer>>(), "a");
+        HeapFile inner = SystemTestUtil.createRandomHeapFile(2, 10, null,
+                new ArrayList<ArrayList<Integer>>(), "b");
+        TransactionId tid = new TransactionId();
+        LogicalJoinNode lj = new LogicalJoinNode("x", "y", "a0", "b0", Predicate.Op.EQUALS);
+
+        DbIterator j = JoinOptimizer.instantiateJoin(lj,
+                new SeqScan(tid, outer.getId(), "x"), new SeqScan(tid, inner.getId(), "y"));
+        assertTrue(j instanceof HashJoin);
+
+        Database.getCatalog().addIndex(inner.getId(), "b0");
+        j = JoinOptimizer.instantiateJoin(lj,
+                new SeqScan(tid, outer.getId(), "x"), new SeqScan(tid, inner.getId(), "y"));
+        assertTrue(j instanceof IndexNestedLoopJoin);
+    }
+
+    /**
+     * A filtered, projected inner is read through its table's index too, and
+     * the index join applies the scan's predicates and projection to the
+     * tuples it looks up.
+     */
+    @Test public void plannerUsesIndexUnderFusedScan() throws Exception {
+        HeapFile outer = SystemTestUtil.createRandomHeapFile(2, 300, 50, null,
+                new ArrayList<ArrayList<Integer>>(), "a");
+        HeapFile inner = SystemTestUtil.createRandomHeapFile(3, 1000, 50, null,
+                new ArrayList<ArrayList<Integer>>(), "b");
+        Database.getCatalog().addIndex(inner.getId(), "b0");
+        TransactionId tid = new TransactionId();
+        // keep b2 and b0, in that order, of the tuples with b1 < 20
+        ArrayList<Predicate> ps = new ArrayList<Predicate>();
+        ps.add(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(20)));
+        int[] keep = new int[] { 2, 0 };
+        LogicalJoinNode lj = new LogicalJoinNode("x", "y", "a0", "b0", Predicate.Op.EQUALS);
+
+        DbIterator j = JoinOptimizer.instantiateJoin(lj, new SeqScan(tid, outer.getId(), "x"),
+                new FusedScan(tid, inner.getId(), "y", ps, keep));
+        assertTrue(j instanceof IndexNestedLoopJoin);
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+        int expected = count(new HashJoin(pred, new SeqScan(tid, outer.getId(), ""),
+                new FusedScan(tid, inner.getId(), "", ps, keep)));
+        assertTrue(expected > 0);
+        assertEquals(expected, count(j));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(IndexJoinTest.class);
+    }
+}
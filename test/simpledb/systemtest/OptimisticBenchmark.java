@@ -0,0 +1,105 @@
+package simpledb.systemtest;
+
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import simpledb.*;
+
+/**
+ * Compares optimistic transactions with lock-based ones on a small
+ * read-mostly workload at several contention levels.  Each transaction
+ * reads a few random pages and deletes one tuple from a page in a "hot"
+ * range; the fewer hot pages, the more transactions conflict.
+ * <p>
+ * BufferPool has no page lock manager yet, so the locking side is
+ * approximated by a single exclusive lock held for the whole transaction,
+ * i.e. strict two-phase locking at table granularity.  Aborted optimistic
+ * transactions are retried until they commit.
+ * <p>
+ * Usage: java simpledb.systemtest.OptimisticBenchmark [threads] [txns/thread]
+ */
+public class OptimisticBenchmark {
+    static final int TABLE_PAGES = 32;
+    static final int READS_PER_TXN = 4;
+
+    static HeapFile table;
+    static final ReentrantLock tableLock = new ReentrantLock();
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int txns = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        System.out.println("hot pages\tmode\tcommits/s\taborts");
+        for (int hot : new int[] {1, 2, 8, TABLE_PAGES}) {
+            for (boolean occ : new boolean[] {false, true}) {
+                Database.reset();
+                int tuplesPerPage = (BufferPool.getPageSize() * 8) / (2 * Type.INT_TYPE.getLen() * 8 + 1);
+                table = SystemTestUtil.createRandomHeapFile(2, TABLE_PAGES * tuplesPerPage, null, null);
+                run(threads, txns, hot, occ);
+            }
+        }
+    }
+
+    static void run(int threads, final int txns, final int hot, final boolean occ)
+        throws InterruptedException {
+        final AtomicInteger aborts = new AtomicInteger();
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final long seed = i;
+            workers[i] = new Thread() {
+                public void run() {
+                    Random r = new Random(seed);
+                    try {
+                        for (int n = 0; n < txns; n++) {
+                            while (!runOne(r, hot, occ))
+                                aborts.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
+            };
+        }
+        long start = System.nanoTime();
+        for (Thread t : workers)
+            t.start();
+        for (Thread t : workers)
+            t.join();
+        double secs = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d\t%s\t%.0f\t%d%n", hot, occ ? "occ" : "lock",
+                          threads * txns / secs, aborts.get());
+    }
+
+    /** @return false if the transaction aborted */
+    static boolean runOne(Random r, int hot, boolean occ) throws Exception {
+        Transaction t = new Transaction(false, occ);
+        if (!occ)
+            tableLock.lock();
+        try {
+            t.start();
+            BufferPool bp = Database.getBufferPool();
+            for (int i = 0; i < READS_PER_TXN; i++) {
+                HeapPage p = (HeapPage) bp.getPage(t.getId(),
+                        new HeapPageId(table.getId(), r.nextInt(TABLE_PAGES)),
+                        Permissions.READ_ONLY);
+                Iterator<Tuple> it = p.iterator();
+                while (it.hasNext())
+                    it.next();
+            }
+            HeapPage target = (HeapPage) bp.getPage(t.getId(),
+                    new HeapPageId(table.getId(), r.nextInt(hot)),
+                    Permissions.READ_ONLY);
+            Iterator<Tuple> it = target.iterator();
+            if (it.hasNext())
+                bp.deleteTuple(t.getId(), it.next());
+            t.commit();
+            return true;
+        } catch (TransactionAbortedException e) {
+            return false;
+        } finally {
+            if (!occ)
+                tableLock.unlock();
+        }
+    }
+}
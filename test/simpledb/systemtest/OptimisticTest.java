@@ -0,0 +1,106 @@
+package simpledb.systemtest;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import simpledb.*;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Optimistic transactions keep their writes private and are validated
+ * against each other at commit.
+ */
+public class OptimisticTest extends SimpleDbTestBase {
+    HeapFile table;
+    ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        // two full-ish pages
+        table = SystemTestUtil.createRandomHeapFile(2, 1000, null, tuples);
+    }
+
+    /** Delete the first tuple on page pageNo on behalf of t */
+    private ArrayList<Integer> deleteFirst(Transaction t, int pageNo) throws Exception {
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(t.getId(),
+                new HeapPageId(table.getId(), pageNo), Permissions.READ_ONLY);
+        Iterator<Tuple> it = page.iterator();
+        Tuple victim = it.next();
+        Database.getBufferPool().deleteTuple(t.getId(), victim);
+        return SystemTestUtil.tupleToList(victim);
+    }
+
+    @Test public void writesArePrivateUntilCommit() throws Exception {
+        Transaction a = new Transaction(false, true);
+        a.start();
+        ArrayList<Integer> removed = deleteFirst(a, 0);
+
+        ArrayList<ArrayList<Integer>> after = new ArrayList<ArrayList<Integer>>(tuples);
+        after.remove(removed);
+        SystemTestUtil.matchTuples(table, a.getId(), after);
+        SystemTestUtil.matchTuples(table, new TransactionId(), tuples);
+
+        a.commit();
+        SystemTestUtil.matchTuples(table, new TransactionId(), after);
+    }
+
+    @Test public void disjointTransactionsBothCommit() throws Exception {
+        Transaction a = new Transaction(false, true);
+        Transaction b = new Transaction(false, true);
+        a.start();
+        b.start();
+        ArrayList<Integer> ra = deleteFirst(a, 0);
+        ArrayList<Integer> rb = deleteFirst(b, 1);
+        a.commit();
+        b.commit();
+
+        tuples.remove(ra);
+        tuples.remove(rb);
+        SystemTestUtil.matchTuples(table, new TransactionId(), tuples);
+    }
+
+    @Test public void conflictingTransactionAborts() throws Exception {
+        Transaction a = new Transaction(false, true);
+        Transaction b = new Transaction(false, true);
+        a.start();
+        b.start();
+        ArrayList<Integer> ra = deleteFirst(a, 0);
+        deleteFirst(b, 0);
+        a.commit();
+        try {
+            b.commit();
+            fail("expected b to fail validation");
+        } catch (TransactionAbortedException e) {
+            // expected
+        }
+
+        tuples.remove(ra);
+        SystemTestUtil.matchTuples(table, new TransactionId(), tuples);
+    }
+
+    /**
+     * A page fetched for writing but left unchanged is not installed at
+     * commit, so it does not conflict with a transaction that read it.
+     */
+    @Test public void unchangedPagesDoNotConflict() throws Exception {
+        Transaction a = new Transaction(false, true);
+        Transaction b = new Transaction(false, true);
+        a.start();
+        b.start();
+        ArrayList<Integer> rb = deleteFirst(b, 0);
+        Database.getBufferPool().getPage(a.getId(), new HeapPageId(table.getId(), 0),
+                                         Permissions.READ_WRITE);
+        a.commit();
+        b.commit();
+
+        tuples.remove(rb);
+        SystemTestUtil.matchTuples(table, new TransactionId(), tuples);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(OptimisticTest.class);
+    }
+}
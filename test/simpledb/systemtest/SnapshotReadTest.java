@@ -0,0 +1,121 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import simpledb.*;
+
+import static org.junit.Assert.*;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Read-only transactions read a consistent snapshot while writers commit
+ * and abort around them.
+ */
+public class SnapshotReadTest extends SimpleDbTestBase {
+    HeapFile table;
+    ArrayList<ArrayList<Integer>> tuples;
+
+    @Before public void setUp() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        table = SystemTestUtil.createRandomHeapFile(2, 10, null, tuples);
+    }
+
+    private ArrayList<Integer> insert(TransactionId tid, int a, int b)
+            throws DbException, IOException, TransactionAbortedException {
+        Tuple t = new Tuple(table.getTupleDesc());
+        t.setField(0, new IntField(a));
+        t.setField(1, new IntField(b));
+        Database.getBufferPool().insertTuple(tid, table.getId(), t);
+        ArrayList<Integer> row = new ArrayList<Integer>();
+        row.add(a);
+        row.add(b);
+        return row;
+    }
+
+    @Test public void snapshotIgnoresLaterCommits() throws Exception {
+        TransactionId reader = new TransactionId();
+        Database.getBufferPool().beginSnapshot(reader);
+        ArrayList<ArrayList<Integer>> before = new ArrayList<ArrayList<Integer>>(tuples);
+
+        TransactionId writer = new TransactionId();
+        tuples.add(insert(writer, -1, -2));
+
+        // uncommitted: invisible to the snapshot, visible to the writer
+        SystemTestUtil.matchTuples(table, reader, before);
+        SystemTestUtil.matchTuples(table, writer, tuples);
+
+        // committed after the snapshot started: still invisible
+        Database.getBufferPool().transactionComplete(writer, true);
+        SystemTestUtil.matchTuples(table, reader, before);
+        Database.getBufferPool().transactionComplete(reader);
+
+        TransactionId later = new TransactionId();
+        Database.getBufferPool().beginSnapshot(later);
+        SystemTestUtil.matchTuples(table, later, tuples);
+        Database.getBufferPool().transactionComplete(later);
+    }
+
+    /**
+     * A snapshot reader running after HeapFile has changed a page but
+     * before BufferPool.insertTuple has seen the result, whether into an
+     * existing page or a page appended to the file, sees no new tuple.
+     */
+    @Test public void snapshotIgnoresWriteInProgress() throws Exception {
+        ArrayList<ArrayList<Integer>> before = new ArrayList<ArrayList<Integer>>(tuples);
+        TransactionId writer = new TransactionId();
+        Tuple t = new Tuple(table.getTupleDesc());
+        t.setField(0, new IntField(-1));
+        t.setField(1, new IntField(-2));
+        table.insertTuple(writer, t);
+
+        TransactionId reader = new TransactionId();
+        Database.getBufferPool().beginSnapshot(reader);
+        SystemTestUtil.matchTuples(table, reader, before);
+        Database.getBufferPool().transactionComplete(reader);
+        Database.getBufferPool().transactionComplete(writer, false);
+
+        // a full page makes HeapFile append one
+        before = new ArrayList<ArrayList<Integer>>();
+        HeapFile full = SystemTestUtil.createRandomHeapFile(2, 504, null, before);
+        assertEquals(1, full.numPages());
+        writer = new TransactionId();
+        full.insertTuple(writer, t);
+        assertEquals(2, full.numPages());
+
+        reader = new TransactionId();
+        Database.getBufferPool().beginSnapshot(reader);
+        SystemTestUtil.matchTuples(full, reader, before);
+        Database.getBufferPool().transactionComplete(reader);
+        Database.getBufferPool().transactionComplete(writer, false);
+    }
+
+    @Test public void abortRestoresCommittedImage() throws Exception {
+        TransactionId writer = new TransactionId();
+        insert(writer, -1, -2);
+        Database.getBufferPool().transactionComplete(writer, false);
+
+        SystemTestUtil.matchTuples(table, new TransactionId(), tuples);
+    }
+
+    @Test(expected=DbException.class)
+    public void snapshotCannotWrite() throws Exception {
+        TransactionId reader = new TransactionId();
+        Database.getBufferPool().beginSnapshot(reader);
+        insert(reader, 1, 2);
+    }
+
+    @Test public void readOnlyTransactionIsNotLogged() throws Exception {
+        int records = Database.getLogFile().getTotalRecords();
+        Transaction t = new Transaction(true);
+        t.start();
+        SystemTestUtil.matchTuples(table, t.getId(), tuples);
+        t.commit();
+        assertEquals(records, Database.getLogFile().getTotalRecords());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SnapshotReadTest.class);
+    }
+}